@@ -0,0 +1,136 @@
+package com.neocoretechs.lsh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.neocoretechs.lsh.families.CosineHash;
+import com.neocoretechs.lsh.families.DistanceComparator2;
+import com.neocoretechs.wordembedding.EmbeddingMatrix;
+import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.SyntheticGlove;
+
+/**
+ * The LSH hot paths on a synthetic vocabulary: a single {@link CosineHash}, the packed code of a {@link HashTable},
+ * sorting candidates with {@link DistanceComparator2}, an end to end {@link Index#query(FloatTensor, int)}, the exact
+ * {@link FlatIndex} scan it is measured against, and memory mapping a saved index with {@link IndexFile#load(Path)}.
+ * The queries are held out rows of the same generator, so they fall among the indexed topics without being
+ * indexed themselves. Per query benchmarks report the time per query.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class LshBenchmark {
+	static final int QUERIES = 256;
+	static final int CANDIDATES = 1000;
+
+	@Param({"100000"})
+	public int rows;
+
+	@Param({"50", "300"})
+	public int dimension;
+
+	@Param({"10"})
+	public int k;
+
+	private FloatTensor[] queries;
+	private CosineHash cosineHash;
+	private HashTable hashTable;
+	private List<FloatTensor> candidates;
+	private Index index;
+	private FlatIndex flatIndex;
+	private Path indexFile;
+
+	@Setup
+	public void setup() throws IOException {
+		EmbeddingMatrix matrix = SyntheticGlove.generate(rows + QUERIES, dimension);
+		List<FloatTensor> vectors = matrix.asList().subList(0, rows);
+		queries = new FloatTensor[QUERIES];
+		for(int i = 0; i < QUERIES; i++)
+			queries[i] = matrix.row(rows + i);
+		cosineHash = new CosineHash(dimension);
+		hashTable = new HashTable(0, Index.numberOfHashes, dimension);
+		candidates = new ArrayList<FloatTensor>(vectors.subList(0, Math.min(CANDIDATES, rows)));
+		index = new Index(Index.numberOfHashes, Index.numberOfHashTables, dimension);
+		index.build(vectors);
+		index.freeze(true);
+		flatIndex = FlatIndex.of(vectors);
+		indexFile = Files.createTempFile("bench", IndexFile.EXTENSION);
+		IndexFile.save(index, indexFile);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(indexFile);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void cosineHash(Blackhole bh) {
+		for(FloatTensor query : queries)
+			bh.consume(cosineHash.hash(query));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void hashTableHash(Blackhole bh) {
+		for(FloatTensor query : queries)
+			bh.consume(hashTable.hash(query));
+	}
+
+	@Benchmark
+	public List<FloatTensor> distanceSort() {
+		List<FloatTensor> sorted = new ArrayList<FloatTensor>(candidates);
+		sorted.sort(new DistanceComparator2(queries[0]));
+		return sorted;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void indexQuery(Blackhole bh) {
+		for(FloatTensor query : queries)
+			bh.consume(index.query(query, k));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void flatQuery(Blackhole bh) {
+		for(FloatTensor query : queries)
+			bh.consume(flatIndex.search(query, k));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public TopK[] flatBatch() {
+		return flatIndex.search(List.of(queries), k);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Index indexLoad() throws IOException {
+		return IndexFile.load(indexFile);
+	}
+}
@@ -0,0 +1,109 @@
+package com.neocoretechs.wordembedding;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Random;
+
+/**
+ * Parity check of the dot product kernels against {@link FloatTensor#scalarDot}, the element by element reference
+ * every kernel must agree with. Run it after changing a kernel, it prints each mismatch and exits 1 if there is any.
+ * <p>
+ * Covered: the F32 dot, fused cosine, four row matvec and sign bit kernels, the Q8 x F32 and Q8 x Q8 integer
+ * kernels and the F16 and BF16 widening kernels. Sizes straddle the vector width and its multiples and operands
+ * start at unaligned offsets, so the lane loop, the scalar tail and the offset arithmetic are all exercised.
+ * The reference is the dot product of the decoded values, so quantization error is not counted, only the kernel.
+ * A result passes if it is within {@link #TOLERANCE} of the sum of the absolute products, allowing for the
+ * different summation order of the lanes. Run with -Dllama.VectorBitSize=0 to check the scalar fallbacks.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class KernelParity {
+	static final float TOLERANCE = 1e-5f;
+	static final int[] SIZES = {1, 3, 7, 8, 9, 15, 16, 17, 31, 32, 33, 50, 64, 100, 255, 300, 301, 1024};
+	static final int[] OFFSETS = {0, 1, 5};
+	private static int checks;
+	private static int failures;
+
+	private KernelParity() {}
+
+	public static void main(String[] args) {
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : SyntheticGlove.SEED);
+		System.out.println("Vector API "+(FloatTensor.USE_VECTOR_API ? FloatTensor.F_SPECIES : "off"));
+		for(int size : SIZES) {
+			for(int offset : OFFSETS) {
+				F32FloatTensor a = f32(random, size + offset);
+				F32FloatTensor b = f32(random, size + offset);
+				int thatOffset = OFFSETS[(offset + 1) % OFFSETS.length];
+				F32FloatTensor c = f32(random, size + thatOffset);
+				check("f32 dot", size, offset, a.dot(offset, c, thatOffset, size), FloatTensor.scalarDot(a, offset, c, thatOffset, size), magnitude(a, offset, c, thatOffset, size));
+				check("f32 cosine", size, offset, a.cosine(offset, b, offset, size), referenceCosine(a, offset, b, offset, size), 1f);
+				Q8FloatTensor qa = Q8FloatTensor.quantize(a);
+				Q8FloatTensor qb = Q8FloatTensor.quantize(b);
+				check("q8 x f32 dot", size, offset, qa.dot(offset, b, offset, size), FloatTensor.scalarDot(qa, offset, b, offset, size), magnitude(qa, offset, b, offset, size));
+				check("q8 x q8 dot", size, offset, qa.dot(offset, qb, offset, size), FloatTensor.scalarDot(qa, offset, qb, offset, size), magnitude(qa, offset, qb, offset, size));
+				check("q8 cosine", size, offset, qa.cosine(offset, b, offset, size), referenceCosine(qa, offset, b, offset, size), 1f);
+				F16FloatTensor ha = F16FloatTensor.of(a);
+				check("f16 x f32 dot", size, offset, ha.dot(offset, b, offset, size), FloatTensor.scalarDot(ha, offset, b, offset, size), magnitude(ha, offset, b, offset, size));
+				check("f16 cosine", size, offset, ha.cosine(offset, b, offset, size), referenceCosine(ha, offset, b, offset, size), 1f);
+				BF16FloatTensor ba = BF16FloatTensor.of(a);
+				check("bf16 x f32 dot", size, offset, ba.dot(offset, b, offset, size), FloatTensor.scalarDot(ba, offset, b, offset, size), magnitude(ba, offset, b, offset, size));
+				check("bf16 cosine", size, offset, ba.cosine(offset, b, offset, size), referenceCosine(ba, offset, b, offset, size), 1f);
+			}
+			checkMatvec(random, size);
+		}
+		System.out.println(checks+" checks, "+failures+" failures");
+		if(failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * The matvec and signBits kernels over a block of rows, rows not a multiple of four so the single row tail runs.
+	 */
+	private static void checkMatvec(Random random, int cols) {
+		int rows = 31;
+		int offset = 3;
+		F32FloatTensor matrix = f32(random, offset + rows * cols);
+		F32FloatTensor x = f32(random, cols);
+		float[] out = new float[rows];
+		matrix.matvec(offset, x, out, rows, cols);
+		int bits = matrix.signBits(offset, x, rows, cols);
+		for(int r = 0; r < rows; r++) {
+			float want = FloatTensor.scalarDot(matrix, offset + r * cols, x, 0, cols);
+			float magnitude = magnitude(matrix, offset + r * cols, x, 0, cols);
+			check("f32 matvec", cols, r, out[r], want, magnitude);
+			// a sign is only defined when the dot product clears the rounding error
+			if(Math.abs(want) > TOLERANCE * magnitude + Float.MIN_NORMAL)
+				check("f32 signBits", cols, r, (bits >>> r) & 1, want > 0 ? 1 : 0, 0f);
+		}
+	}
+
+	private static void check(String kernel, int size, int offset, float got, float want, float magnitude) {
+		checks++;
+		if(Math.abs(got - want) <= TOLERANCE * magnitude + Float.MIN_NORMAL)
+			return;
+		failures++;
+		System.out.printf("FAIL %s size=%d offset=%d got=%g want=%g%n", kernel, size, offset, got, want);
+	}
+
+	private static float magnitude(FloatTensor a, int aOffset, FloatTensor b, int bOffset, int size) {
+		float sum = 0f;
+		for(int j = 0; j < size; j++)
+			sum += Math.abs(a.getFloat(aOffset + j) * b.getFloat(bOffset + j));
+		return sum;
+	}
+
+	private static float referenceCosine(FloatTensor a, int aOffset, FloatTensor b, int bOffset, int size) {
+		return FloatTensor.cosine(FloatTensor.scalarDot(a, aOffset, b, bOffset, size),
+			FloatTensor.scalarDot(a, aOffset, a, aOffset, size), FloatTensor.scalarDot(b, bOffset, b, bOffset, size));
+	}
+
+	/**
+	 * An off-heap, 64 byte aligned float32 tensor of gaussian values, as the index and matrix allocate them.
+	 */
+	private static F32FloatTensor f32(Random random, int size) {
+		MemorySegment segment = Arena.ofAuto().allocate((long) size * Float.BYTES, 64);
+		for(int i = 0; i < size; i++)
+			segment.setAtIndex(ValueLayout.JAVA_FLOAT, i, (float) random.nextGaussian());
+		return new F32FloatTensor(size, segment);
+	}
+}
@@ -0,0 +1,78 @@
+package com.neocoretechs.wordembedding;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a vocabulary: the line by line {@link FileUtils#readCSVFile(String, String, int)} split, the parallel
+ * {@link EmbeddingParser}, and memory mapping the binary {@link EmbeddingFile}. The synthetic text and binary files
+ * are written to the temporary directory once per trial and removed afterwards.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class LoadBenchmark {
+	@Param({"20000"})
+	public int rows;
+
+	@Param({"50", "300"})
+	public int dimension;
+
+	private Path text;
+	private Path binary;
+
+	@Setup
+	public void setup() throws IOException {
+		EmbeddingMatrix matrix = SyntheticGlove.generate(rows, dimension);
+		text = Files.createTempFile("glove", ".txt");
+		binary = Files.createTempFile("glove", EmbeddingFile.EXTENSION);
+		SyntheticGlove.write(matrix, text);
+		EmbeddingFile.write(matrix, binary);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(text);
+		Files.deleteIfExists(binary);
+	}
+
+	@Benchmark
+	public List<String[]> readCSVFile() {
+		return FileUtils.readCSVFile(text.toString(), " ", -1);
+	}
+
+	@Benchmark
+	public EmbeddingMatrix parse() throws IOException {
+		return EmbeddingParser.parse(text);
+	}
+
+	@Benchmark
+	public float map() throws IOException {
+		// touch every row so the pages are actually read
+		EmbeddingMatrix matrix = EmbeddingFile.map(binary);
+		float sum = 0f;
+		for(int i = 0; i < matrix.rows(); i++)
+			sum += matrix.get(i, 0);
+		return sum;
+	}
+}
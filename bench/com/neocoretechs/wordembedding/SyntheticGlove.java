@@ -0,0 +1,123 @@
+package com.neocoretechs.wordembedding;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Seeded generator of GloVe-like embeddings, so the benchmarks run offline and give the same data on every run.<p>
+ * Real embeddings are far from uniform on the sphere, and LSH bucket occupancy, candidate counts and rerank cost
+ * all depend on that. The generator mimics the main features: words are drawn around a number of topic centers,
+ * each word's coordinates being its center plus isotropic noise, and the vector lengths follow a log-normal
+ * spread by frequency rank the way frequent GloVe words differ in norm from rare ones. Words are named w0, w1 ...
+ * in rank order.<p>
+ * {@link #write(EmbeddingMatrix, Path)} emits the GloVe text format, a word and its space separated values per
+ * line with five decimals, readable by {@link EmbeddingParser} and {@link FileUtils#readCSVFile(String, String, int)}.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class SyntheticGlove {
+	public static final long SEED = 0x5EEDL;
+	// number of topic centers words are clustered around
+	public static int topics = 64;
+	// standard deviation of a word around its topic center, relative to the center's unit scale
+	public static float spread = 0.6f;
+
+	private SyntheticGlove() {}
+
+	/**
+	 * Generate a matrix of embeddings.
+	 * @param rows number of words
+	 * @param dimension elements per vector
+	 * @param seed random seed, the same seed giving the same matrix
+	 * @return the float32 matrix with words set
+	 */
+	public static EmbeddingMatrix generate(int rows, int dimension, long seed) {
+		Random random = new Random(seed);
+		int nTopics = Math.max(1, Math.min(topics, rows));
+		float[] centers = new float[nTopics * dimension];
+		float centerScale = (float) (1.0 / Math.sqrt(dimension));
+		for(int i = 0; i < centers.length; i++)
+			centers[i] = (float) random.nextGaussian() * centerScale;
+		EmbeddingMatrix matrix = new EmbeddingMatrix(rows, dimension);
+		// each row draws from its own stream so the rows can be filled in parallel and still be reproducible
+		long base = random.nextLong();
+		float noiseScale = spread * centerScale;
+		Parallel.parallelFor(0, rows, i -> {
+			Random r = new Random(base + i * 0x9E3779B97F4A7C15L);
+			int topic = r.nextInt(nTopics);
+			float length = (float) Math.exp(0.25 * r.nextGaussian() + 0.5 * (1.0 - (double) i / rows));
+			float[] row = new float[dimension];
+			for(int d = 0; d < dimension; d++)
+				row[d] = (centers[topic * dimension + d] + (float) r.nextGaussian() * noiseScale) * length;
+			matrix.setRow(i, row);
+			matrix.setWord(i, "w"+i);
+		});
+		return matrix;
+	}
+
+	/**
+	 * Generate with the default seed.
+	 */
+	public static EmbeddingMatrix generate(int rows, int dimension) {
+		return generate(rows, dimension, SEED);
+	}
+
+	/**
+	 * Write a matrix in GloVe text format.
+	 * @param matrix the embeddings
+	 * @param path the destination, replaced if it exists
+	 * @throws IOException
+	 */
+	public static void write(EmbeddingMatrix matrix, Path path) throws IOException {
+		StringBuilder line = new StringBuilder();
+		try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			for(int i = 0; i < matrix.rows(); i++) {
+				line.setLength(0);
+				line.append(matrix.word(i) == null ? "w"+i : matrix.word(i));
+				for(int d = 0; d < matrix.dimension(); d++) {
+					line.append(' ');
+					appendFixed(line, matrix.get(i, d));
+				}
+				line.append('\n');
+				out.append(line);
+			}
+		}
+	}
+
+	/**
+	 * Append a value with five decimals and no exponent, as GloVe files are written.
+	 */
+	private static void appendFixed(StringBuilder sb, float value) {
+		long scaled = Math.round(value * 1e5);
+		if(scaled < 0) {
+			sb.append('-');
+			scaled = -scaled;
+		}
+		sb.append(scaled / 100000).append('.');
+		String frac = Long.toString(scaled % 100000);
+		for(int k = frac.length(); k < 5; k++)
+			sb.append('0');
+		sb.append(frac);
+	}
+
+	/**
+	 * Write a synthetic GloVe file.
+	 * @param args output path, rows, dimension and optionally the seed
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 3) {
+			System.out.println("usage: java com.neocoretechs.wordembedding.SyntheticGlove <output file> <rows> <dimension> [seed]");
+			return;
+		}
+		long tims = System.currentTimeMillis();
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : SEED;
+		EmbeddingMatrix matrix = generate(Integer.parseInt(args[1]), Integer.parseInt(args[2]), seed);
+		write(matrix, Paths.get(args[0]));
+		System.out.println("Wrote "+matrix.rows()+" vectors of "+matrix.dimension()+" to "+args[0]+" in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+}
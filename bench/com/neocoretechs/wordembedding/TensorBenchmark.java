@@ -0,0 +1,136 @@
+package com.neocoretechs.wordembedding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per vector kernels: dot product and cosine similarity against a query, and the Externalizable round trip
+ * {@link F32FloatTensor} goes through on its way to and from the Relatrix store. Each invocation covers a block of
+ * {@link #ROWS} synthetic vectors so the reported time is per vector. The *Unbatched methods replay the original
+ * codec, a byte array copy out and a byte at a time read back, as the baseline the bulk codec is measured against.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class TensorBenchmark {
+	static final int ROWS = 4096;
+
+	@Param({"50", "300"})
+	public int dimension;
+
+	private FloatTensor query;
+	private FloatTensor[] rows;
+	private byte[] serialized;
+	private byte[] serializedUnbatched;
+
+	@Setup
+	public void setup() throws IOException {
+		EmbeddingMatrix matrix = SyntheticGlove.generate(ROWS + 1, dimension);
+		query = matrix.row(ROWS);
+		rows = new FloatTensor[ROWS];
+		for(int i = 0; i < ROWS; i++)
+			rows[i] = matrix.row(i);
+		serialized = write();
+		serializedUnbatched = writeUnbatched();
+	}
+
+	private byte[] write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(ROWS * (dimension * Float.BYTES + 8));
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			for(FloatTensor row : rows)
+				((F32FloatTensor) row).writeExternal(out);
+		}
+		return bytes.toByteArray();
+	}
+
+	private byte[] writeUnbatched() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(ROWS * (dimension * Float.BYTES + 16));
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			for(FloatTensor row : rows) {
+				MemorySegment segment = ((F32FloatTensor) row).getSegment();
+				out.writeInt(row.size());
+				out.writeLong(segment.byteSize());
+				out.write(segment.toArray(ValueLayout.JAVA_BYTE));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void dot(Blackhole bh) {
+		for(FloatTensor row : rows)
+			bh.consume(query.dot(0, row, 0, dimension));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void cosineSimilarity(Blackhole bh) {
+		for(FloatTensor row : rows)
+			bh.consume(FloatTensor.cosineSimilarity(query, row));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public byte[] writeExternal() throws IOException {
+		return write();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void readExternal(Blackhole bh) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			for(int i = 0; i < ROWS; i++) {
+				F32FloatTensor tensor = new F32FloatTensor();
+				tensor.readExternal(in);
+				bh.consume(tensor);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public byte[] writeExternalUnbatched() throws IOException {
+		return writeUnbatched();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void readExternalUnbatched(Blackhole bh) throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedUnbatched))) {
+			for(int i = 0; i < ROWS; i++) {
+				int size = in.readInt();
+				long bs = in.readLong();
+				MemorySegment segment = Arena.ofAuto().allocate(bs, 1);
+				for(int j = 0; j < bs; j++)
+					segment.set(ValueLayout.JAVA_BYTE, j, (byte)(in.read() & 0xFF));
+				bh.consume(new F32FloatTensor(size, segment));
+			}
+		}
+	}
+}
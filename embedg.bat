@@ -1 +1 @@
-C:\Progra~1\Java\graalvm-jdk-25+20.1\bin\java -server -Xmn26g  -Xms26g -Xmx26g --enable-preview --add-modules jdk.incubator.vector -Djava.library.path=C:\Progra~1\apache\apache-tomcat\lib\librocksdbjni-win64.dll -cp C:\Progra~1\apache\apache-tomcat\lib\Relatrix.jar;C:\Progra~1\apache\apache-tomcat\lib\RockSack.jar;C:\Progra~1\apache\apache-tomcat\lib\rocksdbjni-9.10.0-win64.jar;C:\Progra~1\apache\apache-tomcat\lib\jsoup-1.20.1.jar;C:\Users\jg\workspace\WordEmbeddings\WordEmbeddings.jar com.neocoretechs.wordembedding.LoadWordEmbedding D:\etc\Relatrix\apache_logs\glove.6B.50d.txt %1
+C:\Progra~1\Java\graalvm-jdk-25+20.1\bin\java -server -Xms4g -Xmx4g --enable-preview --add-modules jdk.incubator.vector -Djava.library.path=C:\Progra~1\apache\apache-tomcat\lib\librocksdbjni-win64.dll -cp C:\Progra~1\apache\apache-tomcat\lib\Relatrix.jar;C:\Progra~1\apache\apache-tomcat\lib\RockSack.jar;C:\Progra~1\apache\apache-tomcat\lib\rocksdbjni-9.10.0-win64.jar;C:\Progra~1\apache\apache-tomcat\lib\jsoup-1.20.1.jar;C:\Users\jg\workspace\WordEmbeddings\WordEmbeddings.jar com.neocoretechs.wordembedding.LoadWordEmbedding D:\etc\Relatrix\apache_logs\glove.6B.50d.txt %1
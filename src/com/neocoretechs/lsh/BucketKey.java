@@ -0,0 +1,106 @@
+package com.neocoretechs.lsh;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.UUID;
+
+/**
+ * The key of one bucket of one table of one {@link RelatrixLSH}: the index's UUID key, the table number and the
+ * combined hash code. It is the domain of the relations written by {@link RelatrixLSH#add(String, com.neocoretechs.wordembedding.FloatTensor)},
+ * so equal codes of different tables, or of different indexes sharing a tablespace, are different buckets and a
+ * probe fetches only its own table's postings.<p>
+ * Externalized as two longs, an unsigned short and an int, 22 bytes. Keys order by index, then table, then code,
+ * so the buckets of a table are contiguous in the store.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class BucketKey implements Externalizable, Comparable<BucketKey> {
+	private static final long serialVersionUID = -1L;
+	public static final int MAX_TABLES = 1 << 16;
+	private long mostSigBits;
+	private long leastSigBits;
+	private int table;
+	private int code;
+
+	public BucketKey() {}
+
+	/**
+	 * @param key the index key, {@link RelatrixLSH#getKey()}
+	 * @param table the table number, 0 to {@link #MAX_TABLES} - 1
+	 * @param code the combined hash within the table
+	 */
+	public BucketKey(UUID key, int table, int code) {
+		this(key.getMostSignificantBits(), key.getLeastSignificantBits(), table, code);
+	}
+
+	BucketKey(long mostSigBits, long leastSigBits, int table, int code) {
+		if(table < 0 || table >= MAX_TABLES)
+			throw new IllegalArgumentException("table must be between 0 and "+(MAX_TABLES - 1)+":"+table);
+		this.mostSigBits = mostSigBits;
+		this.leastSigBits = leastSigBits;
+		this.table = table;
+		this.code = code;
+	}
+
+	public UUID getKey() {
+		return new UUID(mostSigBits, leastSigBits);
+	}
+
+	public int getTable() {
+		return table;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeLong(mostSigBits);
+		out.writeLong(leastSigBits);
+		out.writeShort(table);
+		out.writeInt(code);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		mostSigBits = in.readLong();
+		leastSigBits = in.readLong();
+		table = in.readUnsignedShort();
+		code = in.readInt();
+	}
+
+	@Override
+	public int compareTo(BucketKey other) {
+		int c = Long.compare(mostSigBits, other.mostSigBits);
+		if(c != 0)
+			return c;
+		c = Long.compare(leastSigBits, other.leastSigBits);
+		if(c != 0)
+			return c;
+		c = Integer.compare(table, other.table);
+		if(c != 0)
+			return c;
+		return Integer.compare(code, other.code);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof BucketKey))
+			return false;
+		BucketKey other = (BucketKey) o;
+		return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits && table == other.table && code == other.code;
+	}
+
+	@Override
+	public int hashCode() {
+		long h = mostSigBits ^ leastSigBits;
+		return (((int) (h ^ (h >>> 32))) * 31 + table) * 31 + code;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s table=%d code=%d", getKey(), table, code);
+	}
+}
@@ -0,0 +1,373 @@
+package com.neocoretechs.lsh;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * Primitive int keyed bucket store mapping a combined hash code to the int ids of the vectors in that bucket.<p>
+ * Codes live in an open addressing table with linear probing, so there are no boxed keys or entry objects.
+ * While loading, each occupied slot owns a small growable int array of postings. {@link #freeze(boolean)}
+ * compacts these into a compressed sparse row layout: an offsets array parallel to the slots and one flat
+ * id array, optionally allocated off-heap, after which the bucket of slot s is ids[offsets[s] .. offsets[s+1]).
+ * A frozen store no longer accepts additions. Frozen arrays are held as {@link MemorySegment}s, which lets a
+ * store be wrapped directly around a memory mapped index file by {@link #mapped}.<p>
+ * Lookups go through {@link #slot(int)}, then {@link #size(int)} and {@link #id(int, int)}, and behave the same
+ * before and after freezing.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+final class BucketStore implements Serializable {
+	private static final long serialVersionUID = 6215418530318254413L;
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int INITIAL_POSTINGS = 4;
+
+	// loading phase, keys and postings per slot, a slot is empty when its size is zero
+	private int[] keys;
+	private int[][] postings;
+	private int[] sizes;
+	// frozen phase, keys and offsets per slot plus the flat ids
+	private boolean frozen;
+	private transient MemorySegment keySegment;
+	private transient MemorySegment offsets;
+	private transient MemorySegment ids;
+	private boolean offHeap;
+
+	private int buckets;
+	private int entries;
+	private int mask;
+
+	BucketStore() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Size the store for an expected number of distinct codes.
+	 * @param expectedBuckets the expected number of buckets
+	 */
+	BucketStore(int expectedBuckets) {
+		int capacity = INITIAL_CAPACITY;
+		while(capacity < expectedBuckets * 2 && capacity < (1 << 30))
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Wrap a frozen store around existing CSR segments, typically slices of a memory mapped file.
+	 * @param capacity the number of slots, a power of two
+	 * @param buckets the number of occupied slots
+	 * @param keySegment capacity ints, the code of each slot
+	 * @param offsets capacity + 1 ints, the start of each slot's postings in ids
+	 * @param ids the flat postings
+	 * @return the frozen store
+	 */
+	static BucketStore mapped(int capacity, int buckets, MemorySegment keySegment, MemorySegment offsets, MemorySegment ids) {
+		if(Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("capacity must be a power of two:"+capacity);
+		return new BucketStore(capacity, buckets, keySegment, offsets, ids);
+	}
+
+	private BucketStore(int capacity, int buckets, MemorySegment keySegment, MemorySegment offsets, MemorySegment ids) {
+		this.mask = capacity - 1;
+		this.buckets = buckets;
+		this.entries = (int) (ids.byteSize() / Integer.BYTES);
+		this.keySegment = keySegment;
+		this.offsets = offsets;
+		this.ids = ids;
+		this.offHeap = ids.isNative();
+		this.frozen = true;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		postings = new int[capacity][];
+		sizes = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int mix(int code) {
+		int h = code * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Add a vector id to the bucket of a code.
+	 * @param code the combined hash
+	 * @param id the vector id
+	 */
+	void add(int code, int id) {
+		int s = slotFor(code);
+		if(sizes[s] == postings[s].length)
+			postings[s] = Arrays.copyOf(postings[s], postings[s].length << 1);
+		postings[s][sizes[s]++] = id;
+		++entries;
+	}
+
+	/**
+	 * Bulk add a batch of consecutive ids. The batch is grouped by code with one sort so each bucket
+	 * grows at most once.
+	 * @param codes the combined hash of each vector in the batch
+	 * @param baseId the id of the vector at codes[0], the rest following consecutively
+	 */
+	void addAll(int[] codes, int baseId) {
+		int n = codes.length;
+		long[] packed = new long[n];
+		for(int i = 0; i < n; i++)
+			packed[i] = ((long) codes[i] << 32) | i;
+		Arrays.sort(packed);
+		int i = 0;
+		while(i < n) {
+			int code = (int) (packed[i] >> 32);
+			int j = i + 1;
+			while(j < n && (int) (packed[j] >> 32) == code)
+				++j;
+			int s = slotFor(code);
+			int size = sizes[s];
+			if(size + (j - i) > postings[s].length)
+				postings[s] = Arrays.copyOf(postings[s], Math.max(size + (j - i), postings[s].length << 1));
+			for(int k = i; k < j; k++)
+				postings[s][size++] = baseId + (int) packed[k];
+			sizes[s] = size;
+			entries += j - i;
+			i = j;
+		}
+	}
+
+	/**
+	 * @param threshold the largest acceptable bucket
+	 * @return the codes of the buckets holding more than threshold ids
+	 */
+	int[] codesOver(int threshold) {
+		if(frozen)
+			throw new IllegalStateException("bucket store is frozen");
+		int n = 0;
+		for(int s = 0; s < sizes.length; s++)
+			if(sizes[s] > threshold)
+				++n;
+		int[] codes = new int[n];
+		n = 0;
+		for(int s = 0; s < sizes.length; s++)
+			if(sizes[s] > threshold)
+				codes[n++] = keys[s];
+		return codes;
+	}
+
+	/**
+	 * Remove the bucket of a code, shifting back the entries that probed past it so no lookup chain is broken.
+	 * @param code the combined hash
+	 * @return the ids the bucket held, or null if there was no such bucket
+	 */
+	int[] remove(int code) {
+		if(frozen)
+			throw new IllegalStateException("bucket store is frozen");
+		int hole = find(code);
+		if(sizes[hole] == 0)
+			return null;
+		int[] removed = Arrays.copyOf(postings[hole], sizes[hole]);
+		entries -= sizes[hole];
+		--buckets;
+		for(int s = (hole + 1) & mask; sizes[s] != 0; s = (s + 1) & mask) {
+			int home = mix(keys[s]) & mask;
+			// move the entry into the hole unless its home lies cyclically after the hole
+			if(((s - home) & mask) >= ((s - hole) & mask)) {
+				keys[hole] = keys[s];
+				postings[hole] = postings[s];
+				sizes[hole] = sizes[s];
+				hole = s;
+			}
+		}
+		keys[hole] = 0;
+		postings[hole] = null;
+		sizes[hole] = 0;
+		return removed;
+	}
+
+	/**
+	 * The slot for a code, creating an empty bucket and growing the table as needed.
+	 */
+	private int slotFor(int code) {
+		if(frozen)
+			throw new IllegalStateException("bucket store is frozen");
+		int s = find(code);
+		if(sizes[s] == 0) {
+			if((buckets + 1) * 2 > keys.length) {
+				rehash(keys.length << 1);
+				s = find(code);
+			}
+			keys[s] = code;
+			postings[s] = new int[INITIAL_POSTINGS];
+			++buckets;
+		}
+		return s;
+	}
+
+	/**
+	 * Loading phase probe, the slot holding the code or the empty slot where it belongs.
+	 */
+	private int find(int code) {
+		int s = mix(code) & mask;
+		while(sizes[s] != 0 && keys[s] != code)
+			s = (s + 1) & mask;
+		return s;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[][] oldPostings = postings;
+		int[] oldSizes = sizes;
+		allocate(capacity);
+		buckets = 0;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldSizes[i] == 0)
+				continue;
+			int s = mix(oldKeys[i]) & mask;
+			while(sizes[s] != 0)
+				s = (s + 1) & mask;
+			keys[s] = oldKeys[i];
+			postings[s] = oldPostings[i];
+			sizes[s] = oldSizes[i];
+			++buckets;
+		}
+	}
+
+	/**
+	 * Compact the postings into CSR form. Idempotent.
+	 * @param offHeap true to place the frozen arrays off-heap
+	 */
+	void freeze(boolean offHeap) {
+		if(frozen)
+			return;
+		int capacity = keys.length;
+		int[] off = new int[capacity + 1];
+		int[] flat = new int[entries];
+		int pos = 0;
+		for(int s = 0; s < capacity; s++) {
+			off[s] = pos;
+			if(sizes[s] != 0) {
+				System.arraycopy(postings[s], 0, flat, pos, sizes[s]);
+				pos += sizes[s];
+			} else {
+				keys[s] = 0;
+			}
+		}
+		off[capacity] = pos;
+		setSegments(keys, off, flat, offHeap);
+		keys = null;
+		postings = null;
+		sizes = null;
+		frozen = true;
+	}
+
+	private void setSegments(int[] keyArray, int[] offsetArray, int[] idArray, boolean offHeap) {
+		this.offHeap = offHeap;
+		keySegment = segment(keyArray, offHeap);
+		offsets = segment(offsetArray, offHeap);
+		ids = segment(idArray, offHeap);
+	}
+
+	private static MemorySegment segment(int[] array, boolean offHeap) {
+		if(!offHeap)
+			return MemorySegment.ofArray(array);
+		MemorySegment segment = Arena.ofAuto().allocate((long) array.length * Integer.BYTES, 64);
+		MemorySegment.copy(array, 0, segment, ValueLayout.JAVA_INT, 0, array.length);
+		return segment;
+	}
+
+	boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * @param code the combined hash
+	 * @return the slot holding the bucket for the code, or -1 if there is no such bucket
+	 */
+	int slot(int code) {
+		int s = mix(code) & mask;
+		if(frozen) {
+			while(size(s) != 0) {
+				if(keySegment.getAtIndex(ValueLayout.JAVA_INT, s) == code)
+					return s;
+				s = (s + 1) & mask;
+			}
+			return -1;
+		}
+		while(sizes[s] != 0) {
+			if(keys[s] == code)
+				return s;
+			s = (s + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param slot a slot from {@link #slot(int)}
+	 * @return the number of ids in the bucket
+	 */
+	int size(int slot) {
+		return frozen ? offsets.getAtIndex(ValueLayout.JAVA_INT, slot + 1) - offsets.getAtIndex(ValueLayout.JAVA_INT, slot) : sizes[slot];
+	}
+
+	/**
+	 * @param slot a slot from {@link #slot(int)}
+	 * @param i position within the bucket
+	 * @return the vector id
+	 */
+	int id(int slot, int i) {
+		return frozen ? ids.getAtIndex(ValueLayout.JAVA_INT, offsets.getAtIndex(ValueLayout.JAVA_INT, slot) + i) : postings[slot][i];
+	}
+
+	/**
+	 * @return the number of slots, occupied or not
+	 */
+	int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Frozen layout accessors for writing the store out.
+	 */
+	MemorySegment keySegment() {
+		return keySegment;
+	}
+
+	MemorySegment offsetSegment() {
+		return offsets;
+	}
+
+	MemorySegment idSegment() {
+		return ids;
+	}
+
+	/**
+	 * @return the number of distinct codes
+	 */
+	int buckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return the total number of ids across all buckets
+	 */
+	int entries() {
+		return entries;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if(frozen) {
+			out.writeObject(keySegment.toArray(ValueLayout.JAVA_INT));
+			out.writeObject(offsets.toArray(ValueLayout.JAVA_INT));
+			out.writeObject(ids.toArray(ValueLayout.JAVA_INT));
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(frozen)
+			setSegments((int[]) in.readObject(), (int[]) in.readObject(), (int[]) in.readObject(), offHeap);
+	}
+}
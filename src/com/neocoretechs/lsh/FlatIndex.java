@@ -0,0 +1,219 @@
+package com.neocoretechs.lsh;
+
+import java.lang.foreign.MemorySegment;
+import java.util.HashSet;
+import java.util.List;
+
+import com.neocoretechs.wordembedding.EmbeddingMatrix;
+import com.neocoretechs.wordembedding.F32FloatTensor;
+import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.Parallel;
+
+/**
+ * Exact nearest neighbor search by cosine distance over every row of an {@link EmbeddingMatrix}.<p>
+ * The rows are one contiguous block, scanned in tiles of {@link #tileBytes} so a tile stays resident in the
+ * core's L2 cache while it is scored. The tiles are split into one contiguous run per core, each run scoring its
+ * tiles with the matrix's SIMD row kernel, {@link FloatTensor#matvec(int, FloatTensor, float[], int, int)}, into a
+ * private {@link TopK}, and the per run selections are merged with {@link TopK#addAll(TopK)} at the end, so no
+ * state is shared while scanning.<p>
+ * {@link #search(List, int)} answers a batch of queries in one pass, scoring each tile against every query of the
+ * batch before moving on, so the rows are streamed from memory once per batch rather than once per query.<p>
+ * It is the ground truth for measuring the recall of an {@link Index}, see {@link #recall(Index, List, int)}, and
+ * the search path an {@link Index} takes itself while it holds no more than {@link Index#getFlatThreshold()} vectors.
+ * Searching is thread safe.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class FlatIndex {
+	private static boolean DEBUG = false;
+	// bytes of rows scored per tile, sized to stay within a core's L2 cache
+	public static int tileBytes = 1 << 18;
+	private final EmbeddingMatrix matrix;
+	// reciprocal L2 norm of each row, 0 for zero rows, null when the rows are normalized
+	private final float[] inverseNorms;
+
+	/**
+	 * @param matrix the vectors, row i being id i
+	 */
+	public FlatIndex(EmbeddingMatrix matrix) {
+		this.matrix = matrix;
+		if(matrix.isNormalized()) {
+			inverseNorms = null;
+		} else {
+			inverseNorms = new float[matrix.rows()];
+			Parallel.parallelFor(0, matrix.rows(), i -> {
+				float n = (float) Math.sqrt(matrix.tensor().dot(i * matrix.dimension(), matrix.tensor(), i * matrix.dimension(), matrix.dimension()));
+				inverseNorms[i] = n > 0f ? 1f / n : 0f;
+			});
+		}
+	}
+
+	/**
+	 * Copy a list of vectors into a contiguous float32 matrix, element i of the list being id i.
+	 * @param vectors the vectors, all of the same dimension
+	 * @return the flat index over the copy
+	 */
+	public static FlatIndex of(List<? extends FloatTensor> vectors) {
+		int rows = vectors.size();
+		int dimension = rows == 0 ? 0 : vectors.get(0).size();
+		EmbeddingMatrix matrix = new EmbeddingMatrix(rows, dimension);
+		MemorySegment segment = matrix.segment();
+		long rowBytes = (long) dimension * Float.BYTES;
+		boolean[] normalized = {true};
+		Parallel.parallelFor(0, rows, i -> {
+			FloatTensor v = vectors.get(i);
+			if(v instanceof F32FloatTensor f32) {
+				MemorySegment.copy(f32.getSegment(), 0, segment, i * rowBytes, rowBytes);
+			} else {
+				for(int d = 0; d < dimension; d++)
+					matrix.set(i, d, v.getFloat(d));
+			}
+			if(!v.isNormalized())
+				normalized[0] = false;
+		});
+		matrix.setNormalized(rows > 0 && normalized[0]);
+		return new FlatIndex(matrix);
+	}
+
+	public int size() {
+		return matrix.rows();
+	}
+
+	public EmbeddingMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @return rows per tile, a multiple of 4 to suit the four row kernel
+	 */
+	private int tileRows() {
+		long rowBytes = Math.max(1L, (long) matrix.dimension() * EmbeddingMatrix.elementBytes(matrix.type()));
+		return (int) Math.max(4, Math.min(Math.max(matrix.rows(), 4), (tileBytes / rowBytes) & ~3L));
+	}
+
+	/**
+	 * The number of contiguous runs of tiles scanned in parallel, one per core but never more than the tiles.
+	 */
+	private int runs(int tiles) {
+		return Math.max(1, Math.min(tiles, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Find the k rows nearest a query.
+	 * @param query the query vector, {@link EmbeddingMatrix#dimension()} elements
+	 * @param k the number of neighbors
+	 * @return the ids and cosine distances of the nearest rows, sorted ascending by distance
+	 */
+	public TopK search(FloatTensor query, int k) {
+		return search(List.of(query), k)[0];
+	}
+
+	/**
+	 * Find the k rows nearest each of a batch of queries with a single pass over the rows.
+	 * @param queries the query vectors
+	 * @param k the number of neighbors per query
+	 * @return for each query, the ids and cosine distances of its nearest rows sorted ascending by distance
+	 */
+	public TopK[] search(List<? extends FloatTensor> queries, int k) {
+		long tims = System.currentTimeMillis();
+		int rows = matrix.rows();
+		int dimension = matrix.dimension();
+		int nq = queries.size();
+		int capacity = Math.max(0, Math.min(k, rows));
+		FloatTensor[] q = new FloatTensor[nq];
+		float[] queryScale = new float[nq];
+		for(int j = 0; j < nq; j++) {
+			q[j] = queries.get(j);
+			float n = q[j].norm();
+			queryScale[j] = n > 0f ? 1f / n : 0f;
+		}
+		int tileRows = tileRows();
+		int tiles = (rows + tileRows - 1) / tileRows;
+		int runs = runs(tiles);
+		TopK[][] partial = new TopK[runs][nq];
+		FloatTensor tensor = matrix.tensor();
+		float[] inverseNorms = this.inverseNorms;
+		Parallel.parallelFor(0, runs, run -> {
+			TopK[] heaps = partial[run];
+			for(int j = 0; j < nq; j++)
+				heaps[j] = new TopK(capacity);
+			float[] scores = new float[tileRows];
+			int end = (int) ((long) (run + 1) * tiles / runs);
+			for(int tile = (int) ((long) run * tiles / runs); tile < end; tile++) {
+				int first = tile * tileRows;
+				int n = Math.min(tileRows, rows - first);
+				// every query against this tile while it is cache resident
+				for(int j = 0; j < nq; j++) {
+					tensor.matvec(first * dimension, q[j], scores, n, dimension);
+					TopK heap = heaps[j];
+					float scale = queryScale[j];
+					for(int i = 0; i < n; i++) {
+						float norm = inverseNorms == null ? 1f : inverseNorms[first + i];
+						float distance = (scale == 0f || norm == 0f) ? 1f : 1f - scores[i] * scale * norm;
+						heap.offer(first + i, distance);
+					}
+				}
+			}
+		});
+		TopK[] result = new TopK[nq];
+		for(int j = 0; j < nq; j++) {
+			TopK merged = partial[0][j];
+			for(int run = 1; run < runs; run++)
+				merged.addAll(partial[run][j]);
+			merged.sort();
+			result[j] = merged;
+		}
+		if(DEBUG)
+			System.out.println("Flat search of "+nq+" queries over "+rows+" rows in "+tiles+" tiles took "+(System.currentTimeMillis()-tims)+" ms.");
+		return result;
+	}
+
+	/**
+	 * Find the k rows nearest a query.
+	 * @param query the query vector
+	 * @param k the number of neighbors
+	 * @return views of the nearest rows, nearest first
+	 */
+	public List<FloatTensor> query(FloatTensor query, int k) {
+		TopK topK = search(query, k);
+		FloatTensor[] result = new FloatTensor[topK.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = matrix.row(topK.id(i));
+		return List.of(result);
+	}
+
+	/**
+	 * Measure the recall of an approximate index against this exact one. Both must hold the same vectors in the same
+	 * order, as they do when this was built by {@link #of(List)} from the index's vectors.
+	 * @param index the approximate index
+	 * @param queries the query vectors
+	 * @param k the number of neighbors per query
+	 * @return the mean over the queries of the fraction of the true k nearest that the index returned
+	 */
+	public double recall(Index index, List<? extends FloatTensor> queries, int k) {
+		if(queries.isEmpty())
+			return 1.0;
+		TopK[] truth = search(queries, k);
+		double sum = 0;
+		for(int j = 0; j < truth.length; j++) {
+			if(truth[j].size() == 0) {
+				sum += 1.0;
+				continue;
+			}
+			HashSet<Integer> expected = new HashSet<Integer>();
+			for(int i = 0; i < truth[j].size(); i++)
+				expected.add(truth[j].id(i));
+			TopK found = index.search(queries.get(j), k);
+			int hits = 0;
+			for(int i = 0; i < found.size(); i++)
+				if(expected.contains(found.id(i)))
+					++hits;
+			sum += (double) hits / truth[j].size();
+		}
+		return sum / truth.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s rows=%d dimension=%d tileRows=%d", this.getClass().getName(), matrix.rows(), matrix.dimension(), tileRows());
+	}
+}
@@ -0,0 +1,109 @@
+package com.neocoretechs.lsh;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.neocoretechs.lsh.families.ProjectionHash;
+import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.Parallel;
+
+/**
+ * A packed sign sketch of 64, 128 or 256 random hyperplane bits per vector, from a projection set of its own
+ * separate from the hash tables.<p>
+ * The fraction of differing bits between two sketches estimates the angle between the vectors, so the Hamming
+ * distance, a few {@link Long#bitCount(long)} calls, ranks candidates in roughly cosine order at a tiny fraction
+ * of the cost of a dot product. The bits are computed 32 at a time by {@link ProjectionHash#hash(FloatTensor)}
+ * and packed two per long.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public class HammingSketch implements Serializable {
+	private static final long serialVersionUID = 2874466719203321175L;
+	private int bits;
+	private ProjectionHash[] parts;
+
+	public HammingSketch() {}
+
+	/**
+	 * @param bits sketch length, 64, 128 or 256
+	 * @param dimension the dimension of the vectors to sketch
+	 */
+	public HammingSketch(int bits, int dimension) {
+		if(bits != 64 && bits != 128 && bits != 256)
+			throw new IllegalArgumentException("sketch bits must be 64, 128 or 256:"+bits);
+		this.bits = bits;
+		this.parts = new ProjectionHash[bits / Integer.SIZE];
+		for(int p = 0; p < parts.length; p++)
+			parts[p] = new ProjectionHash(Integer.SIZE, dimension);
+	}
+
+	/**
+	 * Rebuild a sketch from its projections, as read back by {@link IndexFile#load(java.nio.file.Path)}.
+	 * @param parts bits / 32 projection sets of 32 hyperplanes each
+	 */
+	HammingSketch(ProjectionHash[] parts) {
+		int bits = parts.length * Integer.SIZE;
+		if(bits != 64 && bits != 128 && bits != 256)
+			throw new IllegalArgumentException("sketch bits must be 64, 128 or 256:"+bits);
+		this.bits = bits;
+		this.parts = parts;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return the projections of bits p * 32 to p * 32 + 31
+	 */
+	ProjectionHash getPart(int p) {
+		return parts[p];
+	}
+
+	/**
+	 * @return longs per sketch
+	 */
+	public int words() {
+		return bits / Long.SIZE;
+	}
+
+	/**
+	 * Sketch a vector.
+	 * @param vector the vector
+	 * @param out receives {@link #words()} longs
+	 * @param offset position of the first word
+	 */
+	public void sketch(FloatTensor vector, long[] out, int offset) {
+		for(int w = 0; w < words(); w++) {
+			long lo = parts[2 * w].hash(vector) & 0xFFFFFFFFL;
+			long hi = parts[2 * w + 1].hash(vector) & 0xFFFFFFFFL;
+			out[offset + w] = lo | (hi << 32);
+		}
+	}
+
+	/**
+	 * Sketch a list of vectors in parallel.
+	 * @param vectors the vectors
+	 * @return the sketch of vector i at words() * i
+	 */
+	public long[] sketch(List<? extends FloatTensor> vectors) {
+		int words = words();
+		long[] out = new long[Math.multiplyExact(vectors.size(), words)];
+		Parallel.parallelFor(0, vectors.size(), i -> sketch(vectors.get(i), out, i * words));
+		return out;
+	}
+
+	/**
+	 * @return the number of differing bits between two sketches
+	 */
+	public static int distance(long[] a, int aOffset, long[] b, int bOffset, int words) {
+		int d = 0;
+		for(int w = 0; w < words; w++)
+			d += Long.bitCount(a[aOffset + w] ^ b[bOffset + w]);
+		return d;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s bits=%d", this.getClass().getName(), bits);
+	}
+}
@@ -1,14 +1,12 @@
 package com.neocoretechs.lsh;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 
 import com.neocoretechs.lsh.families.CosineHash;
+import com.neocoretechs.lsh.families.ProjectionHash;
 import com.neocoretechs.wordembedding.FloatTensor;
-import com.neocoretechs.wordembedding.Parallel;
 
 /**
  * An {@link Index} contains one or more locality sensitive hash tables. These hash
@@ -39,16 +37,18 @@ import com.neocoretechs.wordembedding.Parallel;
  */
 class HashTable implements Serializable {
 	private static final long serialVersionUID = -5410017645908038641L;
-	private static boolean DEBUG = true;
 	private static int radius = 500;
 	/**
 	 * Contains the mapping between a combination of a number of hashes (encoded
-	 * using an integer) and a list of possible nearest neighbours
+	 * using an integer) and the ids of possible nearest neighbours
 	 */
-	private HashMap<Integer,List<FloatTensor>> hashTable;
-	private CosineHash[] hashFunctions;
+	private BucketStore hashTable;
+	private ProjectionHash hashFunctions;
 	private CosineHash family;
 	private int index;
+	// buckets split when frozen, their codes sorted, and the sub-table holding each one's ids under extra local bits
+	private int[] hotCodes = new int[0];
+	private HashTable[] subTables = new HashTable[0];
 	
 	/**
 	 * Initialize a new hash table, it needs a hash family and a number of hash
@@ -62,48 +62,213 @@ class HashTable implements Serializable {
 	 */
 	public HashTable(int index, int numberOfHashes, int projectionVectorSize) {
 		this.index = index;
-	    this.hashTable = new HashMap<Integer, List<FloatTensor>>();
-	    this.hashFunctions = new CosineHash[numberOfHashes];
-	    if(numberOfHashes > 64)
-	    	Parallel.parallelFor(0, numberOfHashes, i -> {
-	    		hashFunctions[i] = new CosineHash(projectionVectorSize);
-	    	});
-	    else
-	    	for(int i = 0; i < numberOfHashes; i++)
-	    		hashFunctions[i] = new CosineHash(projectionVectorSize);
+	    this.hashTable = new BucketStore();
+	    this.hashFunctions = new ProjectionHash(numberOfHashes, projectionVectorSize);
+	}
+
+	/**
+	 * Assemble a table from existing projections and a frozen bucket store, as read back from an index file.
+	 * @param index the table number
+	 * @param hashFunctions the projections
+	 * @param hashTable the buckets
+	 */
+	HashTable(int index, ProjectionHash hashFunctions, BucketStore hashTable) {
+		this.index = index;
+		this.hashFunctions = hashFunctions;
+		this.hashTable = hashTable;
+	}
+
+	ProjectionHash getProjectionHash() {
+		return hashFunctions;
+	}
+
+	BucketStore getBucketStore() {
+		return hashTable;
 	}
 
 	/**
 	 * Query the hash table for a vector. It calculates the hash for the vector,
-	 * and does a lookup in the hash table. If no candidates are found, an empty
-	 * list is returned, otherwise, the list of candidates is returned.
+	 * and does a lookup in the hash table. 
 	 * 
 	 * @param query
 	 *            The query vector.
-	 * @return Does a lookup in the table for a query using its hash. If no
-	 *         candidates are found, an empty list is returned, otherwise, the
-	 *         list of candidates is returned.
+	 * @return The bucket slot holding the candidates for the query, read with
+	 *         {@link #size(int)} and {@link #id(int, int)}, or -1 if no
+	 *         candidates are found. A bucket split at freeze is reached through
+	 *         {@link #subTable(int)} instead.
+	 */
+	public int query(FloatTensor query) {
+		return hashTable.slot(hash(query));
+	}
+
+	/**
+	 * @param combinedHash a code from {@link #hash(FloatTensor)} or one of its probes
+	 * @return the bucket slot for the code, or -1 if the bucket is empty
+	 */
+	int slot(int combinedHash) {
+		return hashTable.slot(combinedHash);
+	}
+
+	/**
+	 * @param slot a bucket slot from {@link #query(FloatTensor)}
+	 * @return the number of vector ids in the bucket
+	 */
+	int size(int slot) {
+		return hashTable.size(slot);
+	}
+
+	/**
+	 * @param slot a bucket slot from {@link #query(FloatTensor)}
+	 * @param i the position in the bucket
+	 * @return the vector id
 	 */
-	public List<FloatTensor> query(FloatTensor query) {
-		Integer combinedHash = hash(query);
-		if(DEBUG)
-			System.out.println("Combined hash for query:"+combinedHash);
-		if(hashTable.containsKey(combinedHash))
-			return hashTable.get(combinedHash);
-		else
-			return new ArrayList<FloatTensor>();
+	int id(int slot, int i) {
+		return hashTable.id(slot, i);
 	}
 
 	/**
 	 * Add a vector to the index.
+	 * @param id the id of the vector in the owning index
 	 * @param vector
 	 */
-	public void add(FloatTensor vector) {
-		Integer combinedHash = hash(vector);
-		if(!hashTable.containsKey(combinedHash)){
-			hashTable.put(combinedHash, new ArrayList<FloatTensor>());
+	public void add(int id, FloatTensor vector) {
+		hashTable.add(hash(vector), id);
+	}
+
+	/**
+	 * Bulk add the precomputed codes of a batch of consecutive vector ids.
+	 * @param codes the combined hash of each vector
+	 * @param baseId the id of the vector at codes[0]
+	 */
+	void addAll(int[] codes, int baseId) {
+		hashTable.addAll(codes, baseId);
+	}
+
+	/**
+	 * Compact the buckets into their read only CSR form once loading is done, sub-tables included.
+	 * @param offHeap true to keep the postings off-heap
+	 */
+	void freeze(boolean offHeap) {
+		hashTable.freeze(offHeap);
+		for(HashTable sub : subTables())
+			sub.freeze(offHeap);
+	}
+
+	/**
+	 * Split every bucket holding more than maxBucketSize ids. The bucket's ids move to a sub-table of its own,
+	 * keyed by the sign bits of fresh local projections, using the fewest bits up to maxBits that bring every
+	 * sub-bucket within maxBucketSize. The bucket itself is removed, so a query reaching its code resolves through
+	 * {@link #subTable(int)} to the one sub-bucket of its own local code. Vectors too alike for any projection to
+	 * separate stay together in one sub-bucket. Loading phase, call before {@link #freeze(boolean)}.
+	 * @param vectors the owning index's vectors, by id
+	 * @param maxBucketSize the largest bucket left as is
+	 * @param maxBits the most local bits, 1 to 32
+	 * @return the number of buckets split
+	 */
+	int split(List<? extends FloatTensor> vectors, int maxBucketSize, int maxBits) {
+		if(maxBucketSize < 1 || hashTable.isFrozen())
+			return 0;
+		int[] hot = hashTable.codesOver(maxBucketSize);
+		if(hot.length == 0)
+			return 0;
+		Arrays.sort(hot);
+		int dimension = hashFunctions.getDimensions();
+		HashTable[] subs = new HashTable[hot.length];
+		for(int h = 0; h < hot.length; h++) {
+			int[] ids = hashTable.remove(hot[h]);
+			ProjectionHash local = new ProjectionHash(maxBits, dimension);
+			int[] codes = new int[ids.length];
+			for(int i = 0; i < ids.length; i++)
+				codes[i] = local.hash(vectors.get(ids[i]));
+			// bit i of a code is projection row i, so the low bits are the code under the first rows alone
+			int bits = bitsFor(codes, maxBucketSize, maxBits);
+			int mask = bits == Integer.SIZE ? -1 : (1 << bits) - 1;
+			for(int i = 0; i < codes.length; i++)
+				codes[i] &= mask;
+			// size the sub-table by its distinct codes, which may be far fewer than 2^bits
+			int[] sorted = codes.clone();
+			Arrays.sort(sorted);
+			int distinct = 0;
+			for(int i = 0; i < sorted.length; i++)
+				if(i == 0 || sorted[i] != sorted[i - 1])
+					++distinct;
+			BucketStore store = new BucketStore(distinct);
+			for(int i = 0; i < ids.length; i++)
+				store.add(codes[i], ids[i]);
+			subs[h] = new HashTable(index, new ProjectionHash(bits, dimension, local.getProjections()), store);
+		}
+		hotCodes = hot;
+		subTables = subs;
+		return hot.length;
+	}
+
+	/**
+	 * The fewest low bits of the codes, starting from enough to split the bucket evenly, whose largest group is
+	 * within maxBucketSize, or maxBits if none is.
+	 */
+	private static int bitsFor(int[] codes, int maxBucketSize, int maxBits) {
+		int[] masked = new int[codes.length];
+		int bits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros((codes.length - 1) / maxBucketSize));
+		for(; bits < maxBits; bits++) {
+			int mask = (1 << bits) - 1;
+			for(int i = 0; i < codes.length; i++)
+				masked[i] = codes[i] & mask;
+			Arrays.sort(masked);
+			int largest = 0;
+			for(int i = 0, j; i < masked.length; i = j) {
+				for(j = i + 1; j < masked.length && masked[j] == masked[i]; j++)
+					;
+				largest = Math.max(largest, j - i);
+			}
+			if(largest <= maxBucketSize)
+				return bits;
 		}
-		hashTable.get(combinedHash).add(vector);
+		return maxBits;
+	}
+
+	/**
+	 * @param code a combined hash of this table
+	 * @return the sub-table the code's bucket was split into, or null if it was not split
+	 */
+	HashTable subTable(int code) {
+		int[] hot = hotCodes;
+		if(hot == null || hot.length == 0)
+			return null;
+		int h = Arrays.binarySearch(hot, code);
+		return h < 0 ? null : subTables[h];
+	}
+
+	/**
+	 * @return the codes of the split buckets, ascending
+	 */
+	int[] hotCodes() {
+		return hotCodes == null ? new int[0] : hotCodes;
+	}
+
+	/**
+	 * @return the sub-tables parallel to {@link #hotCodes()}
+	 */
+	HashTable[] subTables() {
+		return subTables == null ? new HashTable[0] : subTables;
+	}
+
+	/**
+	 * Attach the split buckets read back from an index file.
+	 */
+	void setSubTables(int[] hotCodes, HashTable[] subTables) {
+		this.hotCodes = hotCodes;
+		this.subTables = subTables;
+	}
+
+	boolean isFrozen() {
+		return hashTable.isFrozen();
+	}
+
+	/**
+	 * @return the number of distinct buckets
+	 */
+	int buckets() {
+		return hashTable.buckets();
 	}
 	
 	/**
@@ -111,13 +276,34 @@ class HashTable implements Serializable {
 	 * @param vector The vector to calculate the combined hash for.
 	 * @return An integer representing a combined hash.
 	 */
-	private Integer hash(FloatTensor vector){
-		int hashes[] = new int[hashFunctions.length];
-		for(int i = 0 ; i < hashFunctions.length ; i++){
-			hashes[i] = hashFunctions[i].hash(vector);
-		}
-		Integer combinedHash = CosineHash.combine(hashes);
-		return combinedHash;
+	int hash(FloatTensor vector){
+		return hashFunctions.hash(vector);
+	}
+
+	/**
+	 * Calculate the combined hash for a vector, recording the margin of each bit for multi-probe.
+	 * @param vector The vector to calculate the combined hash for.
+	 * @param margins receives the margin of each bit
+	 * @return An integer representing a combined hash.
+	 */
+	int hash(FloatTensor vector, float[] margins) {
+		return hashFunctions.hash(vector, margins);
+	}
+
+	/**
+	 * The probe sequence for a query code, see {@link ProjectionHash#probes(int, float[], int, int[])}.
+	 */
+	int probes(int combinedHash, float[] margins, int numberOfProbes, int[] out) {
+		return hashFunctions.probes(combinedHash, margins, numberOfProbes, out);
+	}
+
+	/**
+	 * Calculate the combined hashes for a batch of vectors.
+	 * @param vectors The vectors to hash.
+	 * @param codes receives the combined hash of vectors[i] at codes[i]
+	 */
+	void hash(FloatTensor[] vectors, int[] codes) {
+		hashFunctions.hash(vectors, codes);
 	}
 
 	/**
@@ -125,11 +311,22 @@ class HashTable implements Serializable {
 	 * @return The number of hash functions used in the hash table.
 	 */
 	public int getNumberOfHashes() {
-		return hashFunctions.length;
+		return hashFunctions.getNumberOfHashes();
+	}
+
+	/**
+	 * @return bytes held by the projections and the bucket layout, keys, offsets and ids, as frozen
+	 */
+	public long bytes() {
+		long projections = (long) hashFunctions.getNumberOfHashes() * hashFunctions.getDimensions() * Float.BYTES;
+		long bytes = projections + ((long) hashTable.capacity() * 2 + 1 + hashTable.entries()) * Integer.BYTES;
+		for(HashTable sub : subTables())
+			bytes += sub.bytes() + Integer.BYTES;
+		return bytes;
 	}
 
 	@Override
 	public String toString() {
-		return String.format("%s index=%d family=%s hashes=%s tableSize=%d",this.getClass().getName(), index, family, Arrays.toString(hashFunctions), hashTable.size());
+		return String.format("%s index=%d family=%s hashes=%s tableSize=%d",this.getClass().getName(), index, family, hashFunctions, hashTable.buckets());
 	}
 }
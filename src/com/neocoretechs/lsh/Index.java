@@ -1,50 +1,81 @@
 package com.neocoretechs.lsh;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import com.neocoretechs.lsh.families.CosineHash;
 import com.neocoretechs.lsh.families.DistanceComparator2;
+import com.neocoretechs.lsh.metrics.LshMetrics;
+import com.neocoretechs.lsh.metrics.Phase;
+import com.neocoretechs.lsh.metrics.QueryEvent;
+import com.neocoretechs.lsh.metrics.QueryProfile;
+import com.neocoretechs.wordembedding.EmbeddingMatrix;
 import com.neocoretechs.wordembedding.FileUtils;
 import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.Parallel;
+import com.neocoretechs.wordembedding.Q8FloatTensor;
 
 /**
  * The index makes it easy to store vectors and lookup queries efficiently. For
  * the moment the index is stored in memory. It holds a number of hash tables,
  * each with a couple of hashes. Together they can be used for efficient lookup
- * of nearest neighbors.
+ * of nearest neighbors.<p>
+ * Thread safety: once loading through {@link #index(FloatTensor)}, {@link #build(List)} and
+ * {@link #freeze(boolean)} is complete, any number of threads may call {@link #query(FloatTensor, int)} and
+ * {@link #queryBatch(List, int)} concurrently. Each thread keeps its own query buffers and the evaluation
+ * counter is a {@link LongAdder}. Loading must not overlap with querying.
  * {@link HashTable}
  * 
  */
 public class Index implements Serializable{
 	private static final long serialVersionUID = 3757702142917691272L;
-	private static boolean DEBUG = true;
+	private static boolean DEBUG = false;
 	private final static Logger LOG = Logger.getLogger(Index.class.getName()); 
 	private static final int VECTOR_DIMENSION = 50;
 	//GLOVE_FILE = "glove.6B.50d.txt";
 	public static int numberOfHashTables = 8;
 	public static int numberOfHashes = 8;
 	public static int numberOfNeighbors = -1;//4;
+	public static int numberOfProbes = 1;
 
 	private CosineHash family;
 	private List<HashTable> hashTable; 
-	private int evaluated;
+	// the vectors by id, an ArrayList while building, the row view of the mapping when loaded by IndexFile
+	@SuppressWarnings("serial")
+	private List<FloatTensor> vectors;
+	private LongAdder evaluated = new LongAdder();
+	private boolean normalized;
+	private int probes = numberOfProbes;
+	// at or below this many vectors a query is an exact scan by FlatIndex rather than a hash lookup
+	private int flatThreshold = IndexConfig.DEFAULT_FLAT_THRESHOLD;
+	// buckets larger than this are split into sub-tables at freeze, 0 to never split, and the most extra bits a split uses
+	private int maxBucketSize;
+	private int maxSplitBits = IndexConfig.DEFAULT_SPLIT_BITS;
+	// int8 copies of the vectors for a cheap first scoring pass, and how many of its best are rescored exactly
+	private Q8FloatTensor[] quantized;
+	private int rescore;
+	// product quantization codes of the vectors, m bytes each, and how many of the best are reranked exactly
+	private ProductQuantizer productQuantizer;
+	private byte[] pqCodes;
+	private int rerank;
+	// packed sign sketches of the vectors and the fraction of candidates surviving the Hamming prefilter
+	private HammingSketch sketch;
+	private long[] sketches;
+	private float sketchFraction;
+	private transient ForkJoinPool queryPool;
+	// exact index over a copy of the vectors while there are no more than flatThreshold of them
+	private transient volatile FlatIndex flat;
 	
 	public Index() {}
 	/**
@@ -62,11 +93,52 @@ public class Index implements Serializable{
 	 *            to compute a hash also increases marginally.
 	 */
 	public Index(int numberOfHashes, int numberOfHashTables, int projectionVectorSize){
+		this(numberOfHashes, numberOfHashTables, projectionVectorSize, false);
+	}
+	
+	public Index(IndexConfig config, int projectionVectorSize){
+		this(config, projectionVectorSize, false);
+	}
+	
+	/**
+	 * Create a new index shaped by a config, such as one recommended by {@link IndexTuner}.
+	 * @param config hashes per table, number of tables, probes per table and exact scan threshold
+	 * @param projectionVectorSize The dimension of the indexed vectors.
+	 * @param normalized true to scale each vector to unit length as it is indexed
+	 */
+	public Index(IndexConfig config, int projectionVectorSize, boolean normalized){
+		this(config.getNumberOfHashes(), config.getNumberOfHashTables(), projectionVectorSize, normalized);
+		this.probes = config.getNumberOfProbes();
+		this.flatThreshold = config.getFlatThreshold();
+		this.maxBucketSize = config.getMaxBucketSize();
+		this.maxSplitBits = config.getMaxSplitBits();
+	}
+	
+	/**
+	 * Create a new index.
+	 * @param numberOfHashes The number of hashes that are concatenated in each hash table.
+	 * @param numberOfHashTables The number of hash tables in use.
+	 * @param projectionVectorSize The dimension of the indexed vectors.
+	 * @param normalized true to scale each vector to unit length as it is indexed, so the cosine
+	 *            rerank reduces to a single dot product per candidate. Vectors are normalized in place.
+	 */
+	public Index(int numberOfHashes, int numberOfHashTables, int projectionVectorSize, boolean normalized){
+		this.normalized = normalized;
+		vectors = new ArrayList<FloatTensor>();
 		hashTable = new ArrayList<HashTable>();
 		for(int i = 0 ; i < numberOfHashTables ; i++ ){
 			hashTable.add(new HashTable(i, numberOfHashes, projectionVectorSize));
 		}
-		evaluated = 0;
+	}
+	
+	/**
+	 * Assemble an index from frozen tables and their vectors, as read back by {@link IndexFile#load(Path)}.
+	 */
+	Index(List<HashTable> hashTable, List<FloatTensor> vectors, boolean normalized, int probes) {
+		this.hashTable = hashTable;
+		this.vectors = vectors;
+		this.normalized = normalized;
+		this.probes = Math.max(1, probes);
 	}
 	
 	/**
@@ -75,11 +147,320 @@ public class Index implements Serializable{
 	 * 
 	 * @param vector
 	 *            The vector to add.
+	 * @return the id assigned to the vector
 	 */
-	public void index(FloatTensor vector) {
+	public int index(FloatTensor vector) {
+		if(normalized)
+			vector.normalizeInPlace();
+		int id = vectors.size();
+		vectors.add(vector);
 		for (HashTable table : hashTable) {
-			table.add(vector);
+			table.add(id, vector);
 		}
+		return id;
+	}
+	
+	/**
+	 * Bulk index a set of vectors using all cores. The vectors are hashed against every table in parallel,
+	 * then each table merges its codes into its own buckets on its own thread, so no table is ever touched
+	 * by two threads and no locking is needed. Ids are assigned consecutively in list order.
+	 * @param vectors the vectors to add
+	 * @return the id assigned to the first vector
+	 */
+	public int build(List<? extends FloatTensor> vectors) {
+		long tims = System.currentTimeMillis();
+		FloatTensor[] batch = vectors.toArray(new FloatTensor[vectors.size()]);
+		if(normalized)
+			Parallel.parallelFor(0, batch.length, i -> batch[i].normalizeInPlace());
+		int baseId = this.vectors.size();
+		if(this.vectors instanceof ArrayList)
+			((ArrayList<FloatTensor>) this.vectors).ensureCapacity(baseId + batch.length);
+		for(FloatTensor vector : batch)
+			this.vectors.add(vector);
+		int[][] codes = hash(batch);
+		long timh = System.currentTimeMillis();
+		Parallel.parallelFor(0, hashTable.size(), t -> hashTable.get(t).addAll(codes[t], baseId));
+		if(DEBUG)
+			LOG.info("Indexed "+batch.length+" vectors into "+hashTable.size()+" tables in "+(System.currentTimeMillis()-tims)+" ms, hashing "+(timh-tims)+" ms.");
+		return baseId;
+	}
+	
+	/**
+	 * Bulk index every row of an embedding matrix, row i receiving id base + i. A normalizing index normalizes
+	 * the whole matrix in place first.
+	 * @param matrix the embeddings
+	 * @return the id assigned to row 0
+	 * @throws UnsupportedOperationException if the index normalizes and the matrix is read only and not yet normalized
+	 */
+	public int build(EmbeddingMatrix matrix) {
+		if(normalized)
+			matrix.normalizeInPlace();
+		return build(matrix.asList());
+	}
+	
+	/**
+	 * Compact every table into its frozen CSR layout once bulk loading is done. 
+	 * If bucket splitting is on, see {@link #setBucketSplit(int, int)}, first any bucket over the limit is split into
+	 * a sub-table by extra local hash bits, see {@link HashTable#split(List, int, int)}, so the candidates a query
+	 * gathers per probe stay bounded wherever it lands. No vectors may be indexed afterwards.
+	 * @param offHeap true to keep the bucket postings off-heap
+	 */
+	public void freeze(boolean offHeap) {
+		long tims = System.currentTimeMillis();
+		int maxBucketSize = this.maxBucketSize;
+		int maxSplitBits = this.maxSplitBits;
+		int[] split = new int[hashTable.size()];
+		Parallel.parallelFor(0, hashTable.size(), t -> {
+			HashTable table = hashTable.get(t);
+			if(!table.isFrozen())
+				split[t] = table.split(vectors, maxBucketSize, maxSplitBits);
+			table.freeze(offHeap);
+		});
+		if(DEBUG)
+			LOG.info("Froze "+hashTable.size()+" tables splitting "+Arrays.stream(split).sum()+" buckets in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+	
+	/**
+	 * @return true once {@link #freeze(boolean)} has compacted every table
+	 */
+	public boolean isFrozen() {
+		for(HashTable table : hashTable)
+			if(!table.isFrozen())
+				return false;
+		return true;
+	}
+	
+	/**
+	 * @return the number of buckets split into sub-tables across all tables
+	 */
+	public int getSplitBuckets() {
+		int n = 0;
+		for(HashTable table : hashTable)
+			n += table.hotCodes().length;
+		return n;
+	}
+	
+	/**
+	 * @param id a vector id returned from {@link #index(FloatTensor)}
+	 * @return the indexed vector
+	 */
+	public FloatTensor getVector(int id) {
+		return vectors.get(id);
+	}
+	
+	/**
+	 * @return the number of indexed vectors
+	 */
+	public int size() {
+		return vectors.size();
+	}
+	
+	/**
+	 * The combined hash of a vector in every table.
+	 * @param vector the vector to hash
+	 * @return the code for each table, indexed by table
+	 */
+	public int[] hash(FloatTensor vector) {
+		int[] codes = new int[hashTable.size()];
+		for(int t = 0; t < codes.length; t++)
+			codes[t] = hashTable.get(t).hash(vector);
+		return codes;
+	}
+	
+	/**
+	 * Hash a batch of vectors against all tables at once, spread across cores.
+	 * @param vectors the vectors to hash
+	 * @return codes[table][vector]
+	 */
+	public int[][] hash(FloatTensor[] vectors) {
+		int[][] codes = new int[hashTable.size()][vectors.length];
+		Parallel.parallelFor(0, vectors.length, i -> {
+			for(int t = 0; t < codes.length; t++)
+				codes[t][i] = hashTable.get(t).hash(vectors[i]);
+		});
+		return codes;
+	}
+	
+	/**
+	 * @return the number of buckets probed in each table per query
+	 */
+	public int getNumberOfProbes() {
+		return probes;
+	}
+	
+	/**
+	 * Set the number of buckets probed in each table per query. With more than one probe, the buckets
+	 * reached by flipping the lowest margin bits of the query code are searched too, raising recall without
+	 * adding tables.
+	 * @param probes the number of probes, including the query's own bucket
+	 */
+	public void setNumberOfProbes(int probes) {
+		if(probes < 1)
+			throw new IllegalArgumentException("probes:"+probes);
+		this.probes = probes;
+	}
+	
+	/**
+	 * Score candidates on int8 copies of the vectors first and rescore only the best of them in float32.
+	 * The copies are built here, in one off-heap block a quarter the size of the float32 vectors, so call this
+	 * again after indexing more vectors. Until then queries fall back to exact scoring.
+	 * @param rescore the number of first pass candidates rescored exactly, at least the number of neighbors
+	 *            asked for is always kept. Zero or less discards the copies and scores exactly.
+	 */
+	public void quantize(int rescore) {
+		if(rescore < 1) {
+			this.quantized = null;
+			this.rescore = 0;
+			return;
+		}
+		long tims = System.currentTimeMillis();
+		int count = vectors.size();
+		int dimension = count == 0 ? 0 : vectors.get(0).size();
+		MemorySegment codes = Arena.ofAuto().allocate((long) count * dimension, 64);
+		Q8FloatTensor[] q8 = new Q8FloatTensor[count];
+		Parallel.parallelFor(0, count, i -> q8[i] = Q8FloatTensor.quantize(vectors.get(i), codes.asSlice((long) i * dimension, dimension)));
+		this.quantized = q8;
+		this.rescore = rescore;
+		if(DEBUG)
+			LOG.info("Quantized "+count+" vectors in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+	
+	/**
+	 * Score candidates by product quantization, m table lookups each, in preference to exact or int8 scoring.
+	 * Every indexed vector is encoded here, so call this again after indexing more vectors. Until then queries
+	 * fall back to the other scoring paths.
+	 * @param productQuantizer a quantizer trained on vectors like these, see {@link ProductQuantizer#train}, or null
+	 *            to discard the codes
+	 * @param rerank the number of best approximate candidates rescored exactly, at least the number of neighbors
+	 *            asked for. Zero returns the approximate ranking as is.
+	 */
+	public void setProductQuantizer(ProductQuantizer productQuantizer, int rerank) {
+		if(productQuantizer == null) {
+			this.productQuantizer = null;
+			this.pqCodes = null;
+			this.rerank = 0;
+			return;
+		}
+		long tims = System.currentTimeMillis();
+		this.pqCodes = productQuantizer.encode(vectors);
+		this.rerank = rerank;
+		this.productQuantizer = productQuantizer;
+		if(DEBUG)
+			LOG.info("Encoded "+vectors.size()+" vectors with "+productQuantizer+" in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+	
+	/**
+	 * Prefilter candidates by the Hamming distance of packed sign sketches before any float scoring, so a long
+	 * candidate list from wide buckets costs a few popcounts per candidate and only the nearest fraction is scored.
+	 * Every indexed vector is sketched here, so call this again after indexing more vectors. Until then queries
+	 * skip the prefilter.
+	 * @param bits sketch length, 64, 128 or 256, or 0 to remove the prefilter
+	 * @param fraction the fraction of candidates kept for scoring, never fewer than the number of neighbors asked for
+	 */
+	public void setSketch(int bits, float fraction) {
+		if(bits == 0) {
+			this.sketch = null;
+			this.sketches = null;
+			return;
+		}
+		if(!(fraction > 0f && fraction <= 1f))
+			throw new IllegalArgumentException("fraction:"+fraction);
+		long tims = System.currentTimeMillis();
+		HammingSketch sketch = new HammingSketch(bits, getDimension());
+		this.sketches = sketch.sketch(vectors);
+		this.sketchFraction = fraction;
+		this.sketch = sketch;
+		if(DEBUG)
+			LOG.info("Sketched "+vectors.size()+" vectors with "+bits+" bits in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+	
+	public HammingSketch getSketch() {
+		return sketch;
+	}
+	
+	/**
+	 * @return the fraction of candidates the Hamming prefilter keeps
+	 */
+	public float getSketchFraction() {
+		return sketchFraction;
+	}
+	
+	/**
+	 * @return the packed sketches of the vectors, or null if there are none or they predate the last vector indexed
+	 */
+	long[] getSketches() {
+		HammingSketch sketch = this.sketch;
+		long[] sketches = this.sketches;
+		return sketch != null && sketches.length == (long) vectors.size() * sketch.words() ? sketches : null;
+	}
+	
+	/**
+	 * Install a sketch and the sketches of the vectors as read back by {@link IndexFile#load(Path)}.
+	 */
+	void setSketch(HammingSketch sketch, long[] sketches, float fraction) {
+		this.sketches = sketches;
+		this.sketchFraction = fraction;
+		this.sketch = sketch;
+	}
+	
+	public ProductQuantizer getProductQuantizer() {
+		return productQuantizer;
+	}
+	
+	/**
+	 * @return the number of int8 scored candidates rescored in float32, 0 if queries score exactly
+	 */
+	public int getRescore() {
+		return rescore;
+	}
+	
+	/**
+	 * @return the int8 copies of the vectors, or null if there are none or they predate the last vector indexed
+	 */
+	Q8FloatTensor[] getQuantized() {
+		Q8FloatTensor[] quantized = this.quantized;
+		return quantized != null && quantized.length == vectors.size() ? quantized : null;
+	}
+	
+	/**
+	 * Install int8 copies of the vectors as read back by {@link IndexFile#load(Path)}.
+	 */
+	void setQuantized(Q8FloatTensor[] quantized, int rescore) {
+		this.quantized = quantized;
+		this.rescore = rescore;
+	}
+	
+	/**
+	 * @return the number of product quantization candidates reranked exactly, 0 if the approximate ranking is kept
+	 */
+	public int getRerank() {
+		return rerank;
+	}
+	
+	/**
+	 * @return the product quantization codes of the vectors, or null if there are none or they predate the last
+	 *         vector indexed
+	 */
+	byte[] getPQCodes() {
+		ProductQuantizer productQuantizer = this.productQuantizer;
+		byte[] pqCodes = this.pqCodes;
+		return productQuantizer != null && pqCodes.length == (long) vectors.size() * productQuantizer.getM() ? pqCodes : null;
+	}
+	
+	/**
+	 * Install a quantizer and the codes of the vectors as read back by {@link IndexFile#load(Path)}.
+	 */
+	void setProductQuantizer(ProductQuantizer productQuantizer, byte[] pqCodes, int rerank) {
+		this.pqCodes = pqCodes;
+		this.rerank = rerank;
+		this.productQuantizer = productQuantizer;
+	}
+	
+	/**
+	 * @return true if vectors are normalized to unit length as they are indexed.
+	 */
+	public boolean isNormalized() {
+		return normalized;
 	}
 	
 	/**
@@ -90,6 +471,17 @@ public class Index implements Serializable{
 		return hashTable.size();
 	}
 	
+	/**
+	 * @return the dimension of the indexed vectors
+	 */
+	public int getDimension() {
+		return hashTable.get(0).getProjectionHash().getDimensions();
+	}
+	
+	List<HashTable> getHashTables() {
+		return hashTable;
+	}
+	
 	/**
 	 * The number of hashes used in each hash table in the current index.
 	 * @return The number of hashes used in each hash table in the current index.
@@ -97,6 +489,70 @@ public class Index implements Serializable{
 	public int getNumberOfHashes(){
 		return hashTable.get(0).getNumberOfHashes();
 	}
+	
+	/**
+	 * @return the vector count at or below which queries for a bounded number of neighbors are an exact scan
+	 */
+	public int getFlatThreshold() {
+		return flatThreshold;
+	}
+	
+	/**
+	 * Set the vector count at or below which a query scores every vector exactly with a {@link FlatIndex} rather
+	 * than gathering candidates from the hash tables.
+	 * @param flatThreshold the threshold, 0 to always use the hash tables
+	 */
+	public void setFlatThreshold(int flatThreshold) {
+		if(flatThreshold < 0)
+			throw new IllegalArgumentException("flatThreshold:"+flatThreshold);
+		this.flatThreshold = flatThreshold;
+	}
+	
+	/**
+	 * @return the bucket size above which {@link #freeze(boolean)} splits a bucket, 0 if buckets are never split
+	 */
+	public int getMaxBucketSize() {
+		return maxBucketSize;
+	}
+	
+	/**
+	 * @return the most local hash bits a bucket split uses
+	 */
+	public int getMaxSplitBits() {
+		return maxSplitBits;
+	}
+	
+	/**
+	 * Split buckets holding more than maxBucketSize ids into sub-tables when this index is frozen, bounding the
+	 * candidates a probe can gather at some cost in recall. Off unless set.
+	 * @param maxBucketSize the largest bucket left as is, 0 to never split
+	 * @param maxSplitBits the most local hash bits a split uses, 1 to 32
+	 */
+	public void setBucketSplit(int maxBucketSize, int maxSplitBits) {
+		if(maxBucketSize < 0)
+			throw new IllegalArgumentException("maxBucketSize:"+maxBucketSize);
+		if(maxSplitBits < 1 || maxSplitBits > Integer.SIZE)
+			throw new IllegalArgumentException("maxSplitBits must be between 1 and "+Integer.SIZE+":"+maxSplitBits);
+		this.maxBucketSize = maxBucketSize;
+		this.maxSplitBits = maxSplitBits;
+	}
+	
+	/**
+	 * @return the shape of this index
+	 */
+	public IndexConfig getConfig() {
+		return new IndexConfig(getNumberOfHashes(), getNumberOfHashTables(), probes, flatThreshold, maxBucketSize, maxSplitBits);
+	}
+	
+	/**
+	 * @return bytes held by the hash tables, projections and bucket layout, excluding the vectors themselves
+	 */
+	public long getTableBytes() {
+		long bytes = 0;
+		for(HashTable table : hashTable)
+			bytes += table.bytes();
+		return bytes;
+	}
 
 	/**
 	 * Query for the k nearest neighbors in using the current index. The
@@ -113,25 +569,263 @@ public class Index implements Serializable{
 	 *         lays between zero and a chosen maximum.
 	 */
 	public List<FloatTensor> query(final FloatTensor query, int maxSize){
-		Set<FloatTensor> candidateSet = new HashSet<FloatTensor>();
-		for(HashTable table : hashTable) {
-			if(DEBUG)
-				LOG.info(table.toString());
-			List<FloatTensor> v = table.query(query);
-			if(DEBUG)
-				LOG.info("returned "+v.size()+" elements");
-			candidateSet.addAll(v);
-		}
-		List<FloatTensor> candidates = new ArrayList<FloatTensor>(candidateSet);
-		evaluated += candidates.size();
-		if(DEBUG)
-			LOG.info("evaluated:"+evaluated);
+		TopK topK = search(query, maxSize);
+		List<FloatTensor> result = new ArrayList<FloatTensor>(topK.size());
+		for(int i = 0; i < topK.size(); i++) {
+			result.add(vectors.get(topK.id(i)));
+		}
+		return result;
+	}
+	
+	/**
+	 * Query for the ids of the k nearest neighbors, as {@link #query(FloatTensor, int)} does. While the index
+	 * holds no more than {@link #getFlatThreshold()} vectors the answer to a bounded query is exact, every vector
+	 * being scored by a {@link FlatIndex} scan instead of gathering candidates from the hash tables. A query for
+	 * -1 neighbors always returns the candidates colliding with the query in the hash tables, whatever the size.
+	 * @param query the query vector
+	 * @param maxSize the maximum number of neighbors to return or -1 for every colliding candidate
+	 * @return the ids and cosine distances of the neighbors, sorted ascending by distance
+	 */
+	public TopK search(final FloatTensor query, int maxSize) {
+		return search(query, maxSize, null);
+	}
+	
+	/**
+	 * Query for the ids of the k nearest neighbors, recording where the time went. Each phase is timed into the
+	 * profile if one is given, into {@link LshMetrics} while it is enabled and into a {@link QueryEvent} while
+	 * a flight recording is taking them.
+	 * @param query the query vector
+	 * @param maxSize the maximum number of neighbors to return or -1
+	 * @param profile receives this query's phase times and counts, or null
+	 * @return the ids and cosine distances of the neighbors, sorted ascending by distance
+	 */
+	public TopK search(final FloatTensor query, int maxSize, QueryProfile profile) {
+		int probes = Math.max(1, this.probes);
+		QueryScratch scratch = QueryScratch.get(vectors.size(), probes);
+		QueryEvent event = new QueryEvent();
+		boolean metrics = LshMetrics.enabled;
+		if(profile == null && (metrics || event.isEnabled()))
+			profile = scratch.profile;
+		if(profile != null) {
+			event.begin();
+			profile.start();
+		}
+		if(maxSize > 0 && vectors.size() <= flatThreshold) {
+			FlatIndex flat = flat();
+			evaluated.add(flat.size());
+			TopK topK = flat.search(query, maxSize);
+			if(profile != null) {
+				profile.lap(Phase.SCORE);
+				profile.setCandidates(flat.size());
+				profile.setScored(flat.size());
+				profile.setResults(topK.size());
+				if(metrics)
+					LshMetrics.record(profile);
+				event.commit(profile);
+			}
+			return topK;
+		}
+		// the probe codes of every table
+		int tables = hashTable.size();
+		float[] margins = scratch.margins;
+		int[] codes = scratch.codes(tables * probes);
+		int[] probeCounts = scratch.probeCounts(tables);
+		int[] probeCodes = scratch.probeCodes;
+		for(int t = 0; t < tables; t++) {
+			HashTable table = hashTable.get(t);
+			if(probes == 1) {
+				codes[t] = table.hash(query);
+				probeCounts[t] = 1;
+			} else {
+				int code = table.hash(query, margins);
+				int nProbes = table.probes(code, margins, probes, probeCodes);
+				System.arraycopy(probeCodes, 0, codes, t * probes, nProbes);
+				probeCounts[t] = nProbes;
+			}
+		}
+		if(profile != null)
+			profile.lap(Phase.HASH);
+		// the bucket slot of each probe code, -1 for an empty bucket, and the table or sub-table holding it
+		int[] slots = scratch.slots(tables * probes);
+		HashTable[] owners = scratch.owners(tables * probes);
+		for(int t = 0; t < tables; t++) {
+			HashTable table = hashTable.get(t);
+			for(int p = 0; p < probeCounts[t]; p++) {
+				int code = codes[t * probes + p];
+				HashTable owner = table.subTable(code);
+				if(owner != null)
+					code = owner.hash(query);
+				else
+					owner = table;
+				int slot = owner.slot(code);
+				slots[t * probes + p] = slot;
+				owners[t * probes + p] = owner;
+				if(profile != null) {
+					int n = slot < 0 ? 0 : owner.size(slot);
+					profile.bucket(n);
+					if(metrics)
+						LshMetrics.bucket(n);
+				}
+			}
+		}
+		if(profile != null)
+			profile.lap(Phase.FETCH);
+		// the ids of every bucket, deduplicated by the visited bitset
+		for(int t = 0; t < tables; t++) {
+			for(int p = 0; p < probeCounts[t]; p++) {
+				int slot = slots[t * probes + p];
+				if(slot < 0)
+					continue;
+				HashTable owner = owners[t * probes + p];
+				int n = owner.size(slot);
+				for(int i = 0; i < n; i++) {
+					scratch.visit(owner.id(slot, i));
+				}
+			}
+		}
+		int count = scratch.count;
+		scratch.clearVisited();
+		evaluated.add(count);
+		if(profile != null) {
+			profile.lap(Phase.DEDUPE);
+			profile.setCandidates(count);
+		}
+		// score every candidate exactly once, keep the best maxSize in a bounded heap, sort only those
 		DistanceComparator2 dc = new DistanceComparator2(query);
-		Collections.sort(candidates,dc);
-		if(maxSize > 0 && candidates.size() > maxSize){
-			candidates = candidates.subList(0, maxSize);
+		int k = (maxSize > 0 && count > maxSize) ? maxSize : count;
+		TopK topK = new TopK(k);
+		int[] candidates = scratch.candidates;
+		HammingSketch sketch = this.sketch;
+		long[] sketches = this.sketches;
+		if(sketch != null && sketches.length == (long) vectors.size() * sketch.words()) {
+			int keep = Math.max(k, (int) Math.ceil(count * sketchFraction));
+			if(count > keep)
+				count = prefilter(sketch, sketches, query, scratch, count, keep);
+		}
+		Q8FloatTensor[] quantized = this.quantized;
+		ProductQuantizer productQuantizer = this.productQuantizer;
+		byte[] pqCodes = this.pqCodes;
+		if(productQuantizer != null && pqCodes.length == (long) vectors.size() * productQuantizer.getM()) {
+			// m table lookups per candidate, optionally reranking the best exactly
+			float[] table = scratch.pqTable = productQuantizer.table(query, scratch.pqTable);
+			float queryNorm = query.norm();
+			int m = productQuantizer.getM();
+			TopK first = rerank > 0 ? new TopK(Math.min(count, Math.max(k, rerank))) : topK;
+			for(int i = 0; i < count; i++) {
+				int id = candidates[i];
+				first.offer(id, productQuantizer.distance(table, queryNorm, pqCodes, id * m));
+			}
+			if(first != topK) {
+				for(int i = 0; i < first.size(); i++) {
+					int id = first.id(i);
+					topK.offer(id, (float) dc.distance(vectors.get(id)));
+				}
+			}
+		} else if(quantized != null && quantized.length == vectors.size() && count > Math.max(k, rescore)) {
+			// int8 first pass over all candidates, float32 only for the survivors
+			TopK first = new TopK(Math.max(k, rescore));
+			for(int i = 0; i < count; i++) {
+				int id = candidates[i];
+				first.offer(id, (float) dc.distance(quantized[id]));
+			}
+			for(int i = 0; i < first.size(); i++) {
+				int id = first.id(i);
+				topK.offer(id, (float) dc.distance(vectors.get(id)));
+			}
+		} else {
+			for(int i = 0; i < count; i++) {
+				int id = candidates[i];
+				topK.offer(id, (float) dc.distance(vectors.get(id)));
+			}
+		}
+		if(profile != null) {
+			profile.setScored(count);
+			profile.lap(Phase.SCORE);
 		}
-		return candidates;
+		topK.sort();
+		if(profile != null) {
+			profile.lap(Phase.SELECT);
+			profile.setResults(topK.size());
+			if(metrics)
+				LshMetrics.record(profile);
+			event.commit(profile);
+		}
+		return topK;
+	}
+	
+	/**
+	 * @return the exact index over the current vectors, rebuilt when vectors have been added since it was made
+	 */
+	private FlatIndex flat() {
+		FlatIndex flat = this.flat;
+		if(flat == null || flat.size() != vectors.size()) {
+			flat = FlatIndex.of(vectors);
+			this.flat = flat;
+		}
+		return flat;
+	}
+	
+	/**
+	 * Keep the keep candidates nearest the query in Hamming distance of their sketches, compacted to the front of
+	 * the scratch candidates. The distances are bounded by the sketch length, so the cut off is found with a counting
+	 * pass rather than a sort.
+	 * @return the new candidate count, keep
+	 */
+	private static int prefilter(HammingSketch sketch, long[] sketches, FloatTensor query, QueryScratch scratch, int count, int keep) {
+		int words = sketch.words();
+		long[] querySketch = scratch.querySketch(words);
+		sketch.sketch(query, querySketch, 0);
+		int[] distances = scratch.distances(count);
+		int[] histogram = scratch.histogram(sketch.getBits() + 1);
+		int[] candidates = scratch.candidates;
+		for(int i = 0; i < count; i++) {
+			int d = HammingSketch.distance(sketches, candidates[i] * words, querySketch, 0, words);
+			distances[i] = d;
+			++histogram[d];
+		}
+		// smallest distance whose cumulative count reaches keep, and how many at exactly that distance make the cut
+		int cut = 0;
+		int below = 0;
+		while(below + histogram[cut] < keep)
+			below += histogram[cut++];
+		int atCut = keep - below;
+		int kept = 0;
+		for(int i = 0; i < count; i++) {
+			int d = distances[i];
+			if(d < cut || (d == cut && atCut-- > 0))
+				candidates[kept++] = candidates[i];
+		}
+		return kept;
+	}
+	
+	/**
+	 * Run a batch of queries concurrently on the query pool, see {@link #setQueryPool(ForkJoinPool)}.
+	 * @param queries the query vectors
+	 * @param maxSize the maximum number of neighbors to return per query or -1
+	 * @return the neighbors of each query, in the order of the queries
+	 */
+	public List<List<FloatTensor>> queryBatch(List<FloatTensor> queries, int maxSize) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		List<FloatTensor>[] results = new List[queries.size()];
+		ForkJoinPool pool = getQueryPool();
+		pool.submit(() -> IntStream.range(0, results.length).parallel().forEach(i -> results[i] = query(queries.get(i), maxSize))).join();
+		return Arrays.asList(results);
+	}
+	
+	/**
+	 * @return the pool running {@link #queryBatch(List, int)}, the common pool unless one was set
+	 */
+	public ForkJoinPool getQueryPool() {
+		ForkJoinPool pool = queryPool;
+		return pool == null ? ForkJoinPool.commonPool() : pool;
+	}
+	
+	/**
+	 * Set the pool that runs batched queries, to bound or isolate query parallelism.
+	 * @param queryPool the pool, or null for the common pool
+	 */
+	public void setQueryPool(ForkJoinPool queryPool) {
+		this.queryPool = queryPool;
 	}
 	
 	/**
@@ -139,73 +833,54 @@ public class Index implements Serializable{
 	 * Can be used to calculate the average evaluations per query.
 	 * @return The number of near neighbor candidates that are evaluated during the queries on this index. 
 	 */
-	public int getTouched(){
-		return evaluated;
+	public long getTouched(){
+		return evaluated.sum();
 	}
 	
 	/**
-	 * Serializes the index to disk.
-	 * @param index the storage object.
+	 * Serializes the index to disk in the binary {@link IndexFile} format. The int8 copies of the vectors, the
+	 * product quantizer and its codes and the Hamming sketches are saved with it, with their rescore, rerank and
+	 * prefilter settings, when they are current, see {@link #quantize(int)},
+	 * {@link #setProductQuantizer(ProductQuantizer, int)} and {@link #setSketch(int, float)}.
+	 * @param index the storage object, frozen by {@link #freeze(boolean)}
+	 * @throws IOException if the file cannot be written
+	 * @throws IllegalStateException if the index is not frozen
 	 */
-	public static void serialize(Index index){
-		try {
-			String serializationFile = serializationName(index.getNumberOfHashes(), index.getNumberOfHashTables());
-			OutputStream file = new FileOutputStream(serializationFile);
-			OutputStream buffer = new BufferedOutputStream(file);
-			ObjectOutput output = new ObjectOutputStream(buffer);
-			try {
-				output.writeObject(index);
-			} finally {
-				output.close();
-			}
-		} catch (IOException ex) {
-
-		}
+	public static void serialize(Index index) throws IOException {
+		long tims = System.currentTimeMillis();
+		Path serializationFile = Paths.get(serializationName(index.getNumberOfHashes(), index.getNumberOfHashTables()));
+		IndexFile.save(index, serializationFile);
+		if(DEBUG)
+			LOG.info("Serialized "+index.size()+" vectors to "+serializationFile+" in "+(System.currentTimeMillis()-tims)+" ms.");
 	}
 	
 	/**
 	 * Return a unique name for a hash table wit a family and number of hashes. 
 	 * @param hashtable the hash table.
-	 * @return e.g. "com.neocoretechs.lsh.families.CosineHashFamily_4_4.bin"
+	 * @return e.g. "CosineHash_4_4.lsh"
 	 */
 	private static String serializationName(int numberOfHashes,int numberOfHashTables){
-		return "CosineHash_" + numberOfHashes + "_" + numberOfHashTables + ".bin";
+		return "CosineHash_" + numberOfHashes + "_" + numberOfHashTables + IndexFile.EXTENSION;
 	}
 	
 	/**
-	 * Deserializes the hash table from disk. If deserialization fails, 
-	 * a new Index is created.
+	 * Deserializes the index from disk by memory mapping it. If no file exists for the
+	 * parameters a new Index is created. A file that exists but cannot be read is reported, not replaced.
 	 * 
-	 * @param family The family.
 	 * @param numberOfHashes the number of hashes.
 	 * @param numberOfHashTables The number of hash tables
 	 * @return a new, or deserialized object.
+	 * @throws IOException if the file exists but is unreadable, a different version, truncated or corrupt
 	 */
-	public static Index deserialize(int numberOfHashes,int numberOfHashTables){
-		Index index = null;
+	public static Index deserialize(int numberOfHashes,int numberOfHashTables) throws IOException {
 		String serializationFile = serializationName(numberOfHashes, numberOfHashTables);
-		if(FileUtils.exists(serializationFile)){
-			try {		
-				InputStream file = new FileInputStream(serializationFile);
-				InputStream buffer = new BufferedInputStream(file);
-				ObjectInput input = new ObjectInputStream(buffer);
-				try {
-					index = (Index) input.readObject();
-				} finally {
-					input.close();
-				}
-			} catch (ClassNotFoundException ex) {
-				LOG.severe("Could not find class during deserialization: " + ex.getMessage());
-			} catch (IOException ex) {
-				LOG.severe("IO exeption during during deserialization: " + ex.getMessage());
-				ex.printStackTrace();
-			}
-		}
-		if(index == null)
-			index = new Index(numberOfHashes,numberOfHashTables,VECTOR_DIMENSION);
+		if(!FileUtils.exists(serializationFile))
+			return new Index(numberOfHashes,numberOfHashTables,VECTOR_DIMENSION);
+		long tims = System.currentTimeMillis();
+		Index index = IndexFile.load(Paths.get(serializationFile));
+		if(DEBUG)
+			LOG.info("Deserialized "+index.size()+" vectors from "+serializationFile+" in "+(System.currentTimeMillis()-tims)+" ms.");
 		return index;
 	}
 
 }
-
-
@@ -0,0 +1,189 @@
+package com.neocoretechs.lsh;
+
+import java.io.Serializable;
+
+/**
+ * The shape of an LSH index: hashes concatenated per table, number of tables and buckets probed per table per query,
+ * and for an {@link Index} the size at or below which it answers by exact scan instead and the bucket size above
+ * which {@link Index#freeze(boolean)} splits a bucket, off unless set.
+ * Accepted by the {@link Index} and {@link RelatrixLSH} constructors in place of their static defaults, and emitted by
+ * {@link IndexTuner} as the measured recommendation for a vocabulary.<p>
+ * The text form, from {@link #toString()} and read by {@link #parse(String)}, is
+ * <pre>hashes=12 tables=16 probes=4</pre>
+ * followed by flat=n when the exact scan threshold is not {@link #DEFAULT_FLAT_THRESHOLD}, and by split=n when
+ * buckets are split, with splitbits=n when the most extra bits is not {@link #DEFAULT_SPLIT_BITS}.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class IndexConfig implements Serializable {
+	private static final long serialVersionUID = -3618836105264729145L;
+	public static final int DEFAULT_FLAT_THRESHOLD = 1024;
+	public static final int DEFAULT_SPLIT_BITS = 16;
+	private final int numberOfHashes;
+	private final int numberOfHashTables;
+	private final int numberOfProbes;
+	private final int flatThreshold;
+	private final int maxBucketSize;
+	private final int maxSplitBits;
+
+	/**
+	 * @param numberOfHashes hashes concatenated into each table's code, 1 to 32
+	 * @param numberOfHashTables number of tables, at least 1
+	 * @param numberOfProbes buckets probed per table per query, at least 1
+	 */
+	public IndexConfig(int numberOfHashes, int numberOfHashTables, int numberOfProbes) {
+		this(numberOfHashes, numberOfHashTables, numberOfProbes, DEFAULT_FLAT_THRESHOLD);
+	}
+
+	/**
+	 * @param numberOfHashes hashes concatenated into each table's code, 1 to 32
+	 * @param numberOfHashTables number of tables, at least 1
+	 * @param numberOfProbes buckets probed per table per query, at least 1
+	 * @param flatThreshold vector count at or below which an {@link Index} scores every vector exactly, 0 to always hash
+	 */
+	public IndexConfig(int numberOfHashes, int numberOfHashTables, int numberOfProbes, int flatThreshold) {
+		this(numberOfHashes, numberOfHashTables, numberOfProbes, flatThreshold, 0, DEFAULT_SPLIT_BITS);
+	}
+
+	/**
+	 * @param numberOfHashes hashes concatenated into each table's code, 1 to 32
+	 * @param numberOfHashTables number of tables, at least 1
+	 * @param numberOfProbes buckets probed per table per query, at least 1
+	 * @param flatThreshold vector count at or below which an {@link Index} scores every vector exactly, 0 to always hash
+	 * @param maxBucketSize buckets holding more ids are split into a sub-table when the index is frozen, 0 to never split
+	 * @param maxSplitBits the most local hash bits a split uses, 1 to 32
+	 */
+	public IndexConfig(int numberOfHashes, int numberOfHashTables, int numberOfProbes, int flatThreshold, int maxBucketSize, int maxSplitBits) {
+		if(numberOfHashes < 1 || numberOfHashes > Integer.SIZE)
+			throw new IllegalArgumentException("numberOfHashes must be between 1 and "+Integer.SIZE+":"+numberOfHashes);
+		if(numberOfHashTables < 1)
+			throw new IllegalArgumentException("numberOfHashTables:"+numberOfHashTables);
+		if(numberOfProbes < 1)
+			throw new IllegalArgumentException("numberOfProbes:"+numberOfProbes);
+		if(flatThreshold < 0)
+			throw new IllegalArgumentException("flatThreshold:"+flatThreshold);
+		if(maxBucketSize < 0)
+			throw new IllegalArgumentException("maxBucketSize:"+maxBucketSize);
+		if(maxSplitBits < 1 || maxSplitBits > Integer.SIZE)
+			throw new IllegalArgumentException("maxSplitBits must be between 1 and "+Integer.SIZE+":"+maxSplitBits);
+		this.numberOfHashes = numberOfHashes;
+		this.numberOfHashTables = numberOfHashTables;
+		this.numberOfProbes = numberOfProbes;
+		this.flatThreshold = flatThreshold;
+		this.maxBucketSize = maxBucketSize;
+		this.maxSplitBits = maxSplitBits;
+	}
+
+	/**
+	 * @param flatThreshold vector count at or below which an {@link Index} scores every vector exactly, 0 to always hash
+	 * @return this config with another exact scan threshold
+	 */
+	public IndexConfig withFlatThreshold(int flatThreshold) {
+		return new IndexConfig(numberOfHashes, numberOfHashTables, numberOfProbes, flatThreshold, maxBucketSize, maxSplitBits);
+	}
+
+	/**
+	 * @param maxBucketSize buckets holding more ids are split into a sub-table when the index is frozen, 0 to never split
+	 * @param maxSplitBits the most local hash bits a split uses, 1 to 32
+	 * @return this config with other bucket split settings
+	 */
+	public IndexConfig withBucketSplit(int maxBucketSize, int maxSplitBits) {
+		return new IndexConfig(numberOfHashes, numberOfHashTables, numberOfProbes, flatThreshold, maxBucketSize, maxSplitBits);
+	}
+
+	/**
+	 * Read the text form written by {@link #toString()}. Keys may appear in any order, missing keys take the
+	 * {@link Index} static defaults.
+	 * @param text e.g. "hashes=12 tables=16 probes=4 flat=0 split=2048", separated by spaces or commas
+	 * @return the config
+	 */
+	public static IndexConfig parse(String text) {
+		int hashes = Index.numberOfHashes;
+		int tables = Index.numberOfHashTables;
+		int probes = Index.numberOfProbes;
+		int flat = DEFAULT_FLAT_THRESHOLD;
+		int split = 0;
+		int splitBits = DEFAULT_SPLIT_BITS;
+		for(String field : text.trim().split("[\\s,]+")) {
+			if(field.isEmpty())
+				continue;
+			int eq = field.indexOf('=');
+			if(eq < 0)
+				throw new IllegalArgumentException("Expected key=value:"+field);
+			String key = field.substring(0, eq);
+			int value = Integer.parseInt(field.substring(eq + 1));
+			switch(key) {
+				case "hashes":
+					hashes = value;
+					break;
+				case "tables":
+					tables = value;
+					break;
+				case "probes":
+					probes = value;
+					break;
+				case "flat":
+					flat = value;
+					break;
+				case "split":
+					split = value;
+					break;
+				case "splitbits":
+					splitBits = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown key:"+key);
+			}
+		}
+		return new IndexConfig(hashes, tables, probes, flat, split, splitBits);
+	}
+
+	public int getNumberOfHashes() {
+		return numberOfHashes;
+	}
+
+	public int getNumberOfHashTables() {
+		return numberOfHashTables;
+	}
+
+	public int getNumberOfProbes() {
+		return numberOfProbes;
+	}
+
+	public int getFlatThreshold() {
+		return flatThreshold;
+	}
+
+	public int getMaxBucketSize() {
+		return maxBucketSize;
+	}
+
+	public int getMaxSplitBits() {
+		return maxSplitBits;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof IndexConfig))
+			return false;
+		IndexConfig other = (IndexConfig) o;
+		return numberOfHashes == other.numberOfHashes && numberOfHashTables == other.numberOfHashTables && numberOfProbes == other.numberOfProbes &&
+			flatThreshold == other.flatThreshold && maxBucketSize == other.maxBucketSize && maxSplitBits == other.maxSplitBits;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((((numberOfHashes * 31 + numberOfHashTables) * 31 + numberOfProbes) * 31 + flatThreshold) * 31 + maxBucketSize) * 31 + maxSplitBits;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder(String.format("hashes=%d tables=%d probes=%d", numberOfHashes, numberOfHashTables, numberOfProbes));
+		if(flatThreshold != DEFAULT_FLAT_THRESHOLD)
+			text.append(" flat=").append(flatThreshold);
+		if(maxBucketSize > 0)
+			text.append(" split=").append(maxBucketSize);
+		if(maxSplitBits != DEFAULT_SPLIT_BITS)
+			text.append(" splitbits=").append(maxSplitBits);
+		return text.toString();
+	}
+}
@@ -0,0 +1,528 @@
+package com.neocoretechs.lsh;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import com.neocoretechs.lsh.families.ProjectionHash;
+import com.neocoretechs.wordembedding.EmbeddingMatrix;
+import com.neocoretechs.wordembedding.F32FloatTensor;
+import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.Parallel;
+import com.neocoretechs.wordembedding.Q8FloatTensor;
+
+/**
+ * Versioned, checksummed binary form of a frozen {@link Index}, written with one pass over the tables and
+ * loaded by memory mapping the file.<p>
+ * Layout, all values little-endian, every section starting on a 64 byte boundary:
+ * <pre>
+ * offset 0   int   magic 'LSHI'
+ *        4   int   version
+ *        8   int   numberOfHashes
+ *        12  int   numberOfHashTables
+ *        16  int   dimension
+ *        20  int   vector count
+ *        24  int   number of probes
+ *        28  int   flags, bit 0 set if the vectors are normalized, bit 1 if int8 codes follow the tables,
+ *                  bit 2 if product quantization codes do, bit 3 if Hamming sketches do,
+ *                  bit 4 if vector norms do
+ *        32  long  vectors offset
+ *        40  long  first table offset
+ *        48  long  file size
+ *        56  int   CRC32C of every byte after the header
+ *        60  int   exact scan threshold, see {@link Index#getFlatThreshold()}
+ * vectors    count * dimension float32, row-major
+ * per table  int capacity, int buckets, int entries, int split buckets
+ *            numberOfHashes * dimension float32 projections
+ *            capacity int keys
+ *            capacity + 1 int offsets
+ *            entries int ids
+ *   per split bucket, ascending by code
+ *            int code, int bits, int capacity, int buckets, int entries, 3 ints reserved
+ *            bits * dimension float32 projections
+ *            keys, offsets and ids as above
+ * int8 codes, see {@link Index#quantize(int)}
+ *            int rescore, 3 ints reserved
+ *            count float32 scales
+ *            count int zero points
+ *            count * dimension int8 codes, row-major
+ * product quantization, see {@link Index#setProductQuantizer(ProductQuantizer, int)}
+ *            int subspaces m, int rerank, 2 ints reserved
+ *            per subspace 256 * width float32 centroids, together 256 * dimension
+ *            count * m byte codes, row-major
+ * Hamming sketches, see {@link Index#setSketch(int, float)}
+ *            int bits, float32 fraction kept, 2 ints reserved
+ *            bits * dimension float32 projections, 32 hyperplanes per part
+ *            count * bits / 64 long sketches, row-major
+ * vector norms, written when the vectors are not normalized
+ *            count float32 L2 norms
+ * </pre>
+ * Version 1 files, written before buckets were split, always hold 0 in the split bucket count and load as is.
+ * Version 1 and 2 files, written before the exact scan threshold was kept per index, load with
+ * {@link IndexConfig#DEFAULT_FLAT_THRESHOLD}. Flags this version does not know are rejected.
+ * The bucket split settings are not kept, a saved index is frozen and its split buckets are stored as they are.
+ * The optional sections after the tables are written only when current for every vector, and their flag marks
+ * them present, so a file without them reads the same as before they existed.
+ * {@link #load(Path)} wraps the vectors, projections and bucket arrays directly around slices of the mapping,
+ * so nothing proportional to the number of vectors or postings is rebuilt on the heap. The row views take their
+ * norms from the norms section, so scoring a loaded vector costs the one dot product it does in a built index. Any mismatch in magic,
+ * version, size or checksum is reported as an {@link IOException}.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class IndexFile {
+	public static final int MAGIC = 0x4948534C; // "LSHI" read little-endian
+	public static final int VERSION = 3;
+	public static final String EXTENSION = ".lsh";
+	// set false to skip checksum verification on load
+	public static boolean VERIFY = true;
+	static final int HEADER_SIZE = 64;
+	static final int TABLE_HEADER_SIZE = 16;
+	static final int SUB_HEADER_SIZE = 32;
+	static final int SECTION_HEADER_SIZE = 16;
+	static final int FLAG_NORMALIZED = 1;
+	static final int FLAG_Q8 = 2;
+	static final int FLAG_PQ = 4;
+	static final int FLAG_SKETCH = 8;
+	static final int FLAG_NORMS = 16;
+	static final int KNOWN_FLAGS = FLAG_NORMALIZED | FLAG_Q8 | FLAG_PQ | FLAG_SKETCH | FLAG_NORMS;
+	static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	private static final long CHECKSUM_CHUNK = 1 << 30;
+
+	private IndexFile() {}
+
+	private static long align(long offset) {
+		return (offset + 63) & ~63L;
+	}
+
+	/**
+	 * Byte length of the projections and bucket arrays of one table or sub-table.
+	 */
+	private static long storeBytes(int numberOfHashes, int dimension, int capacity, int entries) {
+		return align((long) numberOfHashes * dimension * Float.BYTES) +
+			align((long) capacity * Integer.BYTES) + align((long) (capacity + 1) * Integer.BYTES) + align((long) entries * Integer.BYTES);
+	}
+
+	/**
+	 * Byte length of one table block, its header through the last of its split buckets.
+	 */
+	private static long tableBytes(HashTable table, int dimension) {
+		BucketStore store = table.getBucketStore();
+		long bytes = align(TABLE_HEADER_SIZE) + storeBytes(table.getNumberOfHashes(), dimension, store.capacity(), store.entries());
+		for(HashTable sub : table.subTables()) {
+			BucketStore subStore = sub.getBucketStore();
+			bytes += align(SUB_HEADER_SIZE) + storeBytes(sub.getNumberOfHashes(), dimension, subStore.capacity(), subStore.entries());
+		}
+		return bytes;
+	}
+
+	/**
+	 * Byte length of the int8 codes section.
+	 */
+	private static long q8Bytes(int count, int dimension) {
+		return align(SECTION_HEADER_SIZE) + align((long) count * Float.BYTES) + align((long) count * Integer.BYTES) + align((long) count * dimension);
+	}
+
+	/**
+	 * Byte length of the product quantization section.
+	 */
+	private static long pqBytes(int count, int dimension, int m) {
+		return align(SECTION_HEADER_SIZE) + align((long) ProductQuantizer.CENTROIDS * dimension * Float.BYTES) + align((long) count * m);
+	}
+
+	/**
+	 * Byte length of the Hamming sketch section.
+	 */
+	private static long sketchBytes(int count, int dimension, int bits) {
+		return align(SECTION_HEADER_SIZE) + align((long) bits * dimension * Float.BYTES) + align((long) count * (bits / Long.SIZE) * Long.BYTES);
+	}
+
+	/**
+	 * Write an index to the binary format. The index is only read, it must already be frozen, so saving never
+	 * changes the index the caller holds.
+	 * @param index the index, frozen by {@link Index#freeze(boolean)}
+	 * @param path the destination, replaced if it exists
+	 * @throws IOException
+	 * @throws IllegalStateException if the index is not frozen
+	 */
+	public static void save(Index index, Path path) throws IOException {
+		if(!index.isFrozen())
+			throw new IllegalStateException("Index must be frozen before it is saved, call freeze first");
+		if(ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+			throw new IOException("Index files require a little-endian platform");
+		List<HashTable> tables = index.getHashTables();
+		int numberOfHashes = index.getNumberOfHashes();
+		int dimension = index.getDimension();
+		int count = index.size();
+		long vectorsOffset = HEADER_SIZE;
+		long tablesOffset = align(vectorsOffset + (long) count * dimension * Float.BYTES);
+		long fileSize = tablesOffset;
+		for(HashTable table : tables)
+			fileSize += tableBytes(table, dimension);
+		int flags = index.isNormalized() ? FLAG_NORMALIZED : 0;
+		Q8FloatTensor[] quantized = index.getQuantized();
+		if(quantized != null) {
+			flags |= FLAG_Q8;
+			fileSize += q8Bytes(count, dimension);
+		}
+		ProductQuantizer productQuantizer = index.getProductQuantizer();
+		byte[] pqCodes = index.getPQCodes();
+		if(pqCodes != null) {
+			flags |= FLAG_PQ;
+			fileSize += pqBytes(count, dimension, productQuantizer.getM());
+		}
+		HammingSketch sketch = index.getSketch();
+		long[] sketches = index.getSketches();
+		if(sketches != null) {
+			flags |= FLAG_SKETCH;
+			fileSize += sketchBytes(count, dimension, sketch.getBits());
+		}
+		if(!index.isNormalized()) {
+			flags |= FLAG_NORMS;
+			fileSize += align((long) count * Float.BYTES);
+		}
+		Files.deleteIfExists(path);
+		try (Arena arena = Arena.ofConfined();
+			 FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MemorySegment segment = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize, arena);
+			segment.set(INT, 0, MAGIC);
+			segment.set(INT, 4, VERSION);
+			segment.set(INT, 8, numberOfHashes);
+			segment.set(INT, 12, tables.size());
+			segment.set(INT, 16, dimension);
+			segment.set(INT, 20, count);
+			segment.set(INT, 24, index.getNumberOfProbes());
+			segment.set(INT, 28, flags);
+			segment.set(INT, 60, index.getFlatThreshold());
+			segment.set(LONG, 32, vectorsOffset);
+			segment.set(LONG, 40, tablesOffset);
+			segment.set(LONG, 48, fileSize);
+			long pos = vectorsOffset;
+			long rowBytes = (long) dimension * Float.BYTES;
+			for(int i = 0; i < count; i++) {
+				writeTensor(index.getVector(i), dimension, segment, pos);
+				pos += rowBytes;
+			}
+			pos = tablesOffset;
+			for(HashTable table : tables) {
+				BucketStore store = table.getBucketStore();
+				int[] hotCodes = table.hotCodes();
+				HashTable[] subTables = table.subTables();
+				segment.set(INT, pos, store.capacity());
+				segment.set(INT, pos + 4, store.buckets());
+				segment.set(INT, pos + 8, store.entries());
+				segment.set(INT, pos + 12, hotCodes.length);
+				pos = writeStore(table, dimension, segment, pos + align(TABLE_HEADER_SIZE));
+				for(int h = 0; h < hotCodes.length; h++) {
+					BucketStore subStore = subTables[h].getBucketStore();
+					segment.set(INT, pos, hotCodes[h]);
+					segment.set(INT, pos + 4, subTables[h].getNumberOfHashes());
+					segment.set(INT, pos + 8, subStore.capacity());
+					segment.set(INT, pos + 12, subStore.buckets());
+					segment.set(INT, pos + 16, subStore.entries());
+					pos = writeStore(subTables[h], dimension, segment, pos + align(SUB_HEADER_SIZE));
+				}
+			}
+			if(quantized != null)
+				pos = writeQ8(quantized, index.getRescore(), dimension, segment, pos);
+			if(pqCodes != null)
+				pos = writePQ(productQuantizer, pqCodes, index.getRerank(), segment, pos);
+			if(sketches != null)
+				pos = writeSketch(sketch, sketches, index.getSketchFraction(), dimension, segment, pos);
+			if(!index.isNormalized()) {
+				// computed on all cores, the confined mapping is written from this thread only
+				float[] norms = new float[count];
+				Parallel.parallelFor(0, count, i -> norms[i] = index.getVector(i).norm());
+				MemorySegment.copy(norms, 0, segment, FLOAT, pos, count);
+				pos += align((long) count * Float.BYTES);
+			}
+			segment.set(INT, 56, checksum(segment, HEADER_SIZE, fileSize));
+			segment.force();
+		}
+	}
+
+	/**
+	 * Write the projections, keys, offsets and ids of a table or sub-table.
+	 * @return the position following them
+	 */
+	private static long writeStore(HashTable table, int dimension, MemorySegment segment, long pos) {
+		BucketStore store = table.getBucketStore();
+		int capacity = store.capacity();
+		int entries = store.entries();
+		int projectionSize = table.getNumberOfHashes() * dimension;
+		writeTensor(table.getProjectionHash().getProjections(), projectionSize, segment, pos);
+		pos += align((long) projectionSize * Float.BYTES);
+		MemorySegment.copy(store.keySegment(), 0, segment, pos, (long) capacity * Integer.BYTES);
+		pos += align((long) capacity * Integer.BYTES);
+		MemorySegment.copy(store.offsetSegment(), 0, segment, pos, (long) (capacity + 1) * Integer.BYTES);
+		pos += align((long) (capacity + 1) * Integer.BYTES);
+		MemorySegment.copy(store.idSegment(), 0, segment, pos, (long) entries * Integer.BYTES);
+		return pos + align((long) entries * Integer.BYTES);
+	}
+
+	/**
+	 * Write the int8 codes section.
+	 * @return the position following it
+	 */
+	private static long writeQ8(Q8FloatTensor[] quantized, int rescore, int dimension, MemorySegment segment, long pos) {
+		int count = quantized.length;
+		segment.set(INT, pos, rescore);
+		long scales = pos + align(SECTION_HEADER_SIZE);
+		long zeroPoints = scales + align((long) count * Float.BYTES);
+		long codes = zeroPoints + align((long) count * Integer.BYTES);
+		for(int i = 0; i < count; i++) {
+			segment.set(FLOAT, scales + (long) i * Float.BYTES, quantized[i].getScale());
+			segment.set(INT, zeroPoints + (long) i * Integer.BYTES, quantized[i].getZeroPoint());
+			MemorySegment.copy(quantized[i].getSegment(), 0, segment, codes + (long) i * dimension, dimension);
+		}
+		return codes + align((long) count * dimension);
+	}
+
+	/**
+	 * Wrap int8 tensors around the codes section of the mapping.
+	 */
+	private static Q8FloatTensor[] readQ8(int count, int dimension, MemorySegment segment, long pos) {
+		long scales = pos + align(SECTION_HEADER_SIZE);
+		long zeroPoints = scales + align((long) count * Float.BYTES);
+		long codes = zeroPoints + align((long) count * Integer.BYTES);
+		Q8FloatTensor[] quantized = new Q8FloatTensor[count];
+		for(int i = 0; i < count; i++)
+			quantized[i] = new Q8FloatTensor(dimension, segment.get(FLOAT, scales + (long) i * Float.BYTES),
+				segment.get(INT, zeroPoints + (long) i * Integer.BYTES), segment.asSlice(codes + (long) i * dimension, dimension));
+		return quantized;
+	}
+
+	/**
+	 * Write the product quantization section.
+	 * @return the position following it
+	 */
+	private static long writePQ(ProductQuantizer productQuantizer, byte[] pqCodes, int rerank, MemorySegment segment, long pos) {
+		int m = productQuantizer.getM();
+		segment.set(INT, pos, m);
+		segment.set(INT, pos + 4, rerank);
+		long start = pos + align(SECTION_HEADER_SIZE);
+		pos = start;
+		for(int j = 0; j < m; j++) {
+			float[] codebook = productQuantizer.getCodebook(j);
+			MemorySegment.copy(codebook, 0, segment, FLOAT, pos, codebook.length);
+			pos += (long) codebook.length * Float.BYTES;
+		}
+		pos = start + align((long) ProductQuantizer.CENTROIDS * productQuantizer.getDimension() * Float.BYTES);
+		MemorySegment.copy(pqCodes, 0, segment, ValueLayout.JAVA_BYTE, pos, pqCodes.length);
+		return pos + align(pqCodes.length);
+	}
+
+	/**
+	 * Rebuild the quantizer of the product quantization section and install it and a heap copy of the codes.
+	 */
+	private static void readPQ(Index index, int count, int dimension, int m, MemorySegment segment, long pos) {
+		float[][] codebooks = new float[m][];
+		long codebook = pos + align(SECTION_HEADER_SIZE);
+		for(int j = 0; j < m; j++) {
+			int length = ProductQuantizer.CENTROIDS * (int) ((long) (j + 1) * dimension / m - (long) j * dimension / m);
+			codebooks[j] = new float[length];
+			MemorySegment.copy(segment, FLOAT, codebook, codebooks[j], 0, length);
+			codebook += (long) length * Float.BYTES;
+		}
+		long codes = pos + align(SECTION_HEADER_SIZE) + align((long) ProductQuantizer.CENTROIDS * dimension * Float.BYTES);
+		byte[] pqCodes = new byte[Math.multiplyExact(count, m)];
+		MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, codes, pqCodes, 0, pqCodes.length);
+		index.setProductQuantizer(ProductQuantizer.of(dimension, codebooks), pqCodes, segment.get(INT, pos + 4));
+	}
+
+	/**
+	 * Write the Hamming sketch section.
+	 * @return the position following it
+	 */
+	private static long writeSketch(HammingSketch sketch, long[] sketches, float fraction, int dimension, MemorySegment segment, long pos) {
+		int bits = sketch.getBits();
+		segment.set(INT, pos, bits);
+		segment.set(FLOAT, pos + 4, fraction);
+		pos += align(SECTION_HEADER_SIZE);
+		int partSize = Integer.SIZE * dimension;
+		for(int p = 0; p < bits / Integer.SIZE; p++)
+			writeTensor(sketch.getPart(p).getProjections(), partSize, segment, pos + (long) p * partSize * Float.BYTES);
+		pos += align((long) bits * dimension * Float.BYTES);
+		MemorySegment.copy(sketches, 0, segment, LONG, pos, sketches.length);
+		return pos + align((long) sketches.length * Long.BYTES);
+	}
+
+	/**
+	 * Rebuild the sketch of the Hamming sketch section, its projections views of the mapping, and install it and a
+	 * heap copy of the sketches.
+	 */
+	private static void readSketch(Index index, int count, int dimension, int bits, MemorySegment segment, long pos) {
+		float fraction = segment.get(FLOAT, pos + 4);
+		long projections = pos + align(SECTION_HEADER_SIZE);
+		int partSize = Integer.SIZE * dimension;
+		ProjectionHash[] parts = new ProjectionHash[bits / Integer.SIZE];
+		for(int p = 0; p < parts.length; p++)
+			parts[p] = new ProjectionHash(Integer.SIZE, dimension,
+				new F32FloatTensor(partSize, segment.asSlice(projections + (long) p * partSize * Float.BYTES, (long) partSize * Float.BYTES)));
+		long[] sketches = new long[Math.multiplyExact(count, bits / Long.SIZE)];
+		MemorySegment.copy(segment, LONG, projections + align((long) bits * dimension * Float.BYTES), sketches, 0, sketches.length);
+		index.setSketch(new HammingSketch(parts), sketches, fraction);
+	}
+
+	/**
+	 * Copy the leading elements of a tensor, taking the segment path when the tensor is already float32.
+	 */
+	private static void writeTensor(FloatTensor tensor, int size, MemorySegment segment, long pos) {
+		if(tensor instanceof F32FloatTensor f32) {
+			MemorySegment.copy(f32.getSegment(), 0, segment, pos, (long) size * Float.BYTES);
+		} else {
+			for(int i = 0; i < size; i++)
+				segment.set(ValueLayout.JAVA_FLOAT, pos + (long) i * Float.BYTES, tensor.getFloat(i));
+		}
+	}
+
+	private static int checksum(MemorySegment segment, long from, long to) {
+		CRC32C crc = new CRC32C();
+		for(long pos = from; pos < to; pos += CHECKSUM_CHUNK)
+			crc.update(segment.asSlice(pos, Math.min(CHECKSUM_CHUNK, to - pos)).asByteBuffer());
+		return (int) crc.getValue();
+	}
+
+	private static boolean fits(int capacity, int entries, long end, long size) {
+		return capacity >= 1 && Integer.bitCount(capacity) == 1 && entries >= 0 && end <= size;
+	}
+
+	/**
+	 * Wrap a table or sub-table around its slices of the mapping.
+	 */
+	private static HashTable readStore(int t, int numberOfHashes, int dimension, int capacity, int buckets, int entries, MemorySegment segment, long pos) {
+		int projectionSize = numberOfHashes * dimension;
+		FloatTensor projections = new F32FloatTensor(projectionSize, segment.asSlice(pos, (long) projectionSize * Float.BYTES));
+		pos += align((long) projectionSize * Float.BYTES);
+		MemorySegment keys = segment.asSlice(pos, (long) capacity * Integer.BYTES);
+		pos += align((long) capacity * Integer.BYTES);
+		MemorySegment offsets = segment.asSlice(pos, (long) (capacity + 1) * Integer.BYTES);
+		pos += align((long) (capacity + 1) * Integer.BYTES);
+		MemorySegment ids = segment.asSlice(pos, (long) entries * Integer.BYTES);
+		return new HashTable(t, new ProjectionHash(numberOfHashes, dimension, projections), BucketStore.mapped(capacity, buckets, keys, offsets, ids));
+	}
+
+	/**
+	 * Memory map an index file. The returned index is frozen and read only, its vectors, projections and
+	 * buckets being views of the mapping that stay valid until the index becomes unreachable.
+	 * @param path the file
+	 * @return the index
+	 * @throws IOException if the file is missing, not in this format, a different version, truncated or corrupt
+	 */
+	public static Index load(Path path) throws IOException {
+		if(ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+			throw new IOException("Index files require a little-endian platform");
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = fileChannel.size();
+			if(size < HEADER_SIZE)
+				throw new IOException(path+" is too short to be an index file");
+			MemorySegment segment = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size, Arena.ofAuto());
+			if(segment.get(INT, 0) != MAGIC)
+				throw new IOException(path+" is not an index file");
+			int version = segment.get(INT, 4);
+			if(version < 1 || version > VERSION)
+				throw new IOException(path+" has unsupported version "+version);
+			int numberOfHashes = segment.get(INT, 8);
+			int numberOfHashTables = segment.get(INT, 12);
+			int dimension = segment.get(INT, 16);
+			int count = segment.get(INT, 20);
+			int probes = segment.get(INT, 24);
+			int flags = segment.get(INT, 28);
+			long vectorsOffset = segment.get(LONG, 32);
+			long tablesOffset = segment.get(LONG, 40);
+			long fileSize = segment.get(LONG, 48);
+			int flatThreshold = version >= 3 ? segment.get(INT, 60) : IndexConfig.DEFAULT_FLAT_THRESHOLD;
+			if((flags & ~KNOWN_FLAGS) != 0)
+				throw new IOException(String.format("%s has unsupported flags %08x", path, flags));
+			if(fileSize != size)
+				throw new IOException(path+" is truncated, header size "+fileSize+" actual "+size);
+			if(numberOfHashes < 1 || numberOfHashes > Integer.SIZE || numberOfHashTables < 1 || dimension < 1 || count < 0 || flatThreshold < 0 ||
+				vectorsOffset + (long) count * dimension * Float.BYTES > tablesOffset)
+				throw new IOException(path+" has a corrupt header");
+			if(VERIFY) {
+				int expected = segment.get(INT, 56);
+				int actual = checksum(segment, HEADER_SIZE, size);
+				if(expected != actual)
+					throw new IOException(String.format("%s failed checksum, expected %08x actual %08x", path, expected, actual));
+			}
+			EmbeddingMatrix matrix = new EmbeddingMatrix(count, dimension, segment.asSlice(vectorsOffset, (long) count * dimension * Float.BYTES), new String[count]);
+			matrix.setNormalized((flags & FLAG_NORMALIZED) != 0);
+			List<HashTable> tables = new ArrayList<HashTable>(numberOfHashTables);
+			long pos = tablesOffset;
+			for(int t = 0; t < numberOfHashTables; t++) {
+				if(pos + TABLE_HEADER_SIZE > size)
+					throw new IOException(path+" is truncated at table "+t);
+				int capacity = segment.get(INT, pos);
+				int buckets = segment.get(INT, pos + 4);
+				int entries = segment.get(INT, pos + 8);
+				int hot = segment.get(INT, pos + 12);
+				if(hot < 0 || !fits(capacity, entries, pos + align(TABLE_HEADER_SIZE) + storeBytes(numberOfHashes, dimension, capacity, entries), size))
+					throw new IOException(path+" has a corrupt header for table "+t);
+				HashTable table = readStore(t, numberOfHashes, dimension, capacity, buckets, entries, segment, pos + align(TABLE_HEADER_SIZE));
+				pos += align(TABLE_HEADER_SIZE) + storeBytes(numberOfHashes, dimension, capacity, entries);
+				int[] hotCodes = new int[hot];
+				HashTable[] subTables = new HashTable[hot];
+				for(int h = 0; h < hot; h++) {
+					if(pos + SUB_HEADER_SIZE > size)
+						throw new IOException(path+" is truncated at table "+t+" split bucket "+h);
+					hotCodes[h] = segment.get(INT, pos);
+					int bits = segment.get(INT, pos + 4);
+					int subCapacity = segment.get(INT, pos + 8);
+					int subBuckets = segment.get(INT, pos + 12);
+					int subEntries = segment.get(INT, pos + 16);
+					if(bits < 1 || bits > Integer.SIZE || (h > 0 && hotCodes[h] <= hotCodes[h - 1]) ||
+						!fits(subCapacity, subEntries, pos + align(SUB_HEADER_SIZE) + storeBytes(bits, dimension, subCapacity, subEntries), size))
+						throw new IOException(path+" has a corrupt header for table "+t+" split bucket "+h);
+					subTables[h] = readStore(t, bits, dimension, subCapacity, subBuckets, subEntries, segment, pos + align(SUB_HEADER_SIZE));
+					pos += align(SUB_HEADER_SIZE) + storeBytes(bits, dimension, subCapacity, subEntries);
+				}
+				table.setSubTables(hotCodes, subTables);
+				tables.add(table);
+			}
+			Index index = new Index(tables, matrix.asList(), matrix.isNormalized(), probes);
+			index.setFlatThreshold(flatThreshold);
+			if((flags & FLAG_Q8) != 0) {
+				if(pos + q8Bytes(count, dimension) > size)
+					throw new IOException(path+" is truncated at the int8 codes");
+				index.setQuantized(readQ8(count, dimension, segment, pos), segment.get(INT, pos));
+				pos += q8Bytes(count, dimension);
+			}
+			if((flags & FLAG_PQ) != 0) {
+				int m = pos + SECTION_HEADER_SIZE <= size ? segment.get(INT, pos) : 0;
+				if(m < 1 || m > dimension)
+					throw new IOException(path+" has a corrupt product quantization header");
+				if(pos + pqBytes(count, dimension, m) > size)
+					throw new IOException(path+" is truncated at the product quantization codes");
+				readPQ(index, count, dimension, m, segment, pos);
+				pos += pqBytes(count, dimension, m);
+			}
+			if((flags & FLAG_SKETCH) != 0) {
+				int bits = pos + SECTION_HEADER_SIZE <= size ? segment.get(INT, pos) : 0;
+				float fraction = bits != 0 ? segment.get(FLOAT, pos + 4) : 0f;
+				if((bits != 64 && bits != 128 && bits != 256) || !(fraction > 0f && fraction <= 1f))
+					throw new IOException(path+" has a corrupt Hamming sketch header");
+				if(pos + sketchBytes(count, dimension, bits) > size)
+					throw new IOException(path+" is truncated at the Hamming sketches");
+				readSketch(index, count, dimension, bits, segment, pos);
+				pos += sketchBytes(count, dimension, bits);
+			}
+			if((flags & FLAG_NORMS) != 0) {
+				if(pos + (long) count * Float.BYTES > size)
+					throw new IOException(path+" is truncated at the vector norms");
+				matrix.setNorms(segment.asSlice(pos, (long) count * Float.BYTES));
+				pos += align((long) count * Float.BYTES);
+			}
+			return index;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package com.neocoretechs.lsh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import com.neocoretechs.wordembedding.EmbeddingMatrix;
+import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.LoadWordEmbedding;
+
+/**
+ * Measures LSH configurations against exact search on a vocabulary and recommends one.<p>
+ * A sample of words is drawn from the vocabulary as queries and their true k nearest neighbours, excluding the word
+ * itself, are found once with a {@link FlatIndex}. Then every combination of {@link #hashGrid}, {@link #tableGrid}
+ * and {@link #probeGrid} is measured for recall@k, candidates evaluated per query, single thread latency per query
+ * and the bytes of its hash tables. The tables are independent, so for each hash count one index with the most
+ * tables is built and every smaller table count is measured on a prefix of its tables instead of rebuilding.<p>
+ * The points no other point beats on all four measures form the Pareto frontier. The recommendation is the fastest
+ * frontier point reaching {@link #targetRecall}, or the highest recall point if none does, as an {@link IndexConfig}
+ * for the {@link Index} and {@link RelatrixLSH} constructors.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class IndexTuner {
+	private static boolean DEBUG = false;
+	public static int[] hashGrid = {8, 10, 12, 14, 16, 18};
+	public static int[] tableGrid = {4, 8, 12, 16, 24};
+	public static int[] probeGrid = {1, 2, 4, 8};
+	// number of vocabulary words sampled as queries
+	public static int sampleSize = 200;
+	public static float targetRecall = 0.9f;
+
+	private final List<FloatTensor> vectors;
+	private final int dimension;
+	private final int k;
+	private final int[] queryIds;
+	// true neighbour ids of each query, the query itself excluded
+	private final List<HashSet<Integer>> expected;
+
+	/**
+	 * One measured configuration.
+	 */
+	public static final class Point {
+		private final IndexConfig config;
+		private final double recall;
+		private final double candidates;
+		private final double micros;
+		private final long bytes;
+		private boolean pareto;
+
+		Point(IndexConfig config, double recall, double candidates, double micros, long bytes) {
+			this.config = config;
+			this.recall = recall;
+			this.candidates = candidates;
+			this.micros = micros;
+			this.bytes = bytes;
+		}
+
+		public IndexConfig getConfig() {
+			return config;
+		}
+
+		/**
+		 * @return mean recall@k over the sample queries
+		 */
+		public double getRecall() {
+			return recall;
+		}
+
+		/**
+		 * @return mean candidates scored per query
+		 */
+		public double getCandidates() {
+			return candidates;
+		}
+
+		/**
+		 * @return mean query latency in microseconds
+		 */
+		public double getMicros() {
+			return micros;
+		}
+
+		/**
+		 * @return bytes of the hash tables
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return true if no other point is at least as good on every measure and better on one
+		 */
+		public boolean isPareto() {
+			return pareto;
+		}
+
+		boolean dominates(Point o) {
+			boolean noWorse = recall >= o.recall && candidates <= o.candidates && micros <= o.micros && bytes <= o.bytes;
+			boolean better = recall > o.recall || candidates < o.candidates || micros < o.micros || bytes < o.bytes;
+			return noWorse && better;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-28s recall=%.3f candidates=%.0f latency=%.1fus bytes=%d%s", config, recall, candidates, micros, bytes, pareto ? " *" : "");
+		}
+	}
+
+	/**
+	 * Sample the queries and compute their exact neighbours.
+	 * @param matrix the vocabulary
+	 * @param k neighbours per query
+	 * @param seed random seed for the query sample
+	 */
+	public IndexTuner(EmbeddingMatrix matrix, int k, long seed) {
+		this(matrix.asList(), new FlatIndex(matrix), k, seed);
+	}
+
+	/**
+	 * Sample the queries and compute their exact neighbours.
+	 * @param vectors the vocabulary
+	 * @param k neighbours per query
+	 * @param seed random seed for the query sample
+	 */
+	public IndexTuner(List<? extends FloatTensor> vectors, int k, long seed) {
+		this(vectors, FlatIndex.of(vectors), k, seed);
+	}
+
+	private IndexTuner(List<? extends FloatTensor> vectors, FlatIndex truth, int k, long seed) {
+		if(vectors.isEmpty())
+			throw new IllegalArgumentException("no vectors to tune on");
+		long tims = System.currentTimeMillis();
+		this.vectors = new ArrayList<FloatTensor>(vectors);
+		this.dimension = vectors.get(0).size();
+		this.k = k;
+		Random random = new Random(seed);
+		int n = Math.min(sampleSize, vectors.size());
+		queryIds = new int[n];
+		List<FloatTensor> queries = new ArrayList<FloatTensor>(n);
+		for(int i = 0; i < n; i++) {
+			queryIds[i] = random.nextInt(vectors.size());
+			queries.add(vectors.get(queryIds[i]));
+		}
+		TopK[] exact = truth.search(queries, k + 1);
+		expected = new ArrayList<HashSet<Integer>>(n);
+		for(int i = 0; i < n; i++) {
+			HashSet<Integer> ids = new HashSet<Integer>();
+			for(int j = 0; j < exact[i].size() && ids.size() < k; j++)
+				if(exact[i].id(j) != queryIds[i])
+					ids.add(exact[i].id(j));
+			expected.add(ids);
+		}
+		if(DEBUG)
+			System.out.println("Exact neighbours of "+n+" queries in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+
+	/**
+	 * Measure every configuration of the grids.
+	 * @return the points, the Pareto frontier marked
+	 */
+	public List<Point> sweep() {
+		List<Point> points = new ArrayList<Point>();
+		int maxTables = 0;
+		for(int tables : tableGrid)
+			maxTables = Math.max(maxTables, tables);
+		boolean warm = false;
+		for(int hashes : hashGrid) {
+			if(hashes < 1 || hashes > Integer.SIZE)
+				continue;
+			long tims = System.currentTimeMillis();
+			// below the exact scan threshold there would be nothing to measure, so these indexes always hash
+			Index full = new Index(new IndexConfig(hashes, maxTables, 1, 0), dimension);
+			full.build(vectors);
+			full.freeze(true);
+			if(DEBUG)
+				System.out.println("Built "+hashes+" hashes x "+maxTables+" tables in "+(System.currentTimeMillis()-tims)+" ms.");
+			if(!warm) {
+				measure(full);
+				warm = true;
+			}
+			for(int tables : tableGrid) {
+				Index index = new Index(full.getHashTables().subList(0, tables), vectors, false, 1);
+				index.setFlatThreshold(0);
+				for(int probes : probeGrid) {
+					index.setNumberOfProbes(probes);
+					points.add(measure(index));
+					if(DEBUG)
+						System.out.println(points.get(points.size() - 1));
+				}
+			}
+		}
+		for(Point p : points) {
+			p.pareto = true;
+			for(Point o : points) {
+				if(o.dominates(p)) {
+					p.pareto = false;
+					break;
+				}
+			}
+		}
+		points.sort((a, b) -> a.recall != b.recall ? Double.compare(b.recall, a.recall) : Double.compare(a.micros, b.micros));
+		return points;
+	}
+
+	/**
+	 * Run the sample queries through an index.
+	 */
+	private Point measure(Index index) {
+		long touched = index.getTouched();
+		double recall = 0;
+		long elapsed = 0;
+		for(int i = 0; i < queryIds.length; i++) {
+			FloatTensor query = vectors.get(queryIds[i]);
+			long t = System.nanoTime();
+			TopK found = index.search(query, k + 1);
+			elapsed += System.nanoTime() - t;
+			HashSet<Integer> truth = expected.get(i);
+			if(truth.isEmpty()) {
+				recall += 1;
+				continue;
+			}
+			int hits = 0;
+			for(int j = 0; j < found.size(); j++)
+				if(truth.contains(found.id(j)))
+					++hits;
+			recall += (double) hits / truth.size();
+		}
+		int n = queryIds.length;
+		// the measured shape, the exact scan threshold left at its default for the recommendation
+		IndexConfig config = new IndexConfig(index.getNumberOfHashes(), index.getNumberOfHashTables(), index.getNumberOfProbes());
+		return new Point(config, recall / n, (double) (index.getTouched() - touched) / n, elapsed / 1000.0 / n, index.getTableBytes());
+	}
+
+	/**
+	 * @param points measured points from {@link #sweep()}
+	 * @return the fastest frontier point reaching {@link #targetRecall}, else the highest recall point
+	 */
+	public static Point recommend(List<Point> points) {
+		Point best = null;
+		for(Point p : points)
+			if(p.pareto && p.recall >= targetRecall && (best == null || p.micros < best.micros))
+				best = p;
+		if(best != null)
+			return best;
+		for(Point p : points)
+			if(best == null || p.recall > best.recall || (p.recall == best.recall && p.micros < best.micros))
+				best = p;
+		return best;
+	}
+
+	/**
+	 * Command line: embeddings file, text or binary, then optionally k, target recall and the number of sample queries.
+	 * Prints the Pareto frontier and the recommended config.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("usage: java com.neocoretechs.lsh.IndexTuner <embeddings file> [k] [target recall] [sample queries]");
+			return;
+		}
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		if(args.length > 2)
+			targetRecall = Float.parseFloat(args[2]);
+		if(args.length > 3)
+			sampleSize = Integer.parseInt(args[3]);
+		long tims = System.currentTimeMillis();
+		EmbeddingMatrix matrix = LoadWordEmbedding.loadTensors(args[0]);
+		IndexTuner tuner = new IndexTuner(matrix, k, 0L);
+		List<Point> points = tuner.sweep();
+		System.out.println("Pareto frontier, recall@"+k+" against candidates, latency and table bytes, over "+tuner.queryIds.length+" queries:");
+		for(Point p : points)
+			if(p.pareto)
+				System.out.println(p);
+		Point best = recommend(points);
+		System.out.println("Recommended for target recall "+targetRecall+": "+best);
+		System.out.println("IndexConfig.parse(\""+best.config+"\")");
+		System.out.println("Tuned "+points.size()+" configurations in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+}
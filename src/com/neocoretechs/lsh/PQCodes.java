@@ -0,0 +1,63 @@
+package com.neocoretechs.lsh;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+
+/**
+ * The m byte {@link ProductQuantizer} code of one vector, stored in place of the vector in the relations written
+ * by {@link RelatrixLSH#add(String, com.neocoretechs.wordembedding.FloatTensor)} when the index has a quantizer.<p>
+ * Externalized as an int length followed by the codes, a quantizer may have as many subspaces as dimensions.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class PQCodes implements Externalizable, Comparable<PQCodes> {
+	private static final long serialVersionUID = -1L;
+	private byte[] codes;
+
+	public PQCodes() {}
+
+	public PQCodes(byte[] codes) {
+		this.codes = codes;
+	}
+
+	public byte[] getCodes() {
+		return codes;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeInt(codes.length);
+		out.write(codes);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		int length = in.readInt();
+		if(length < 0)
+			throw new IOException("negative code length:"+length);
+		codes = new byte[length];
+		in.readFully(codes);
+	}
+
+	@Override
+	public int compareTo(PQCodes o) {
+		return Arrays.compare(codes, o.codes);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof PQCodes && Arrays.equals(codes, ((PQCodes) o).codes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(codes);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(codes);
+	}
+}
@@ -0,0 +1,344 @@
+package com.neocoretechs.lsh;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.Parallel;
+
+/**
+ * Product quantization codec. The dimensions are split into m contiguous subspaces, as even as possible, and each
+ * subspace gets its own codebook of up to 256 centroids learned by k-means, so a vector is stored as m bytes, the
+ * index of the nearest centroid in each subspace.<p>
+ * Scoring is asymmetric: the query stays in full precision. {@link #table(FloatTensor, float[])} computes once per query
+ * the dot product of each query subvector with every centroid of its subspace, after which the dot product with
+ * any encoded vector is the sum of m table entries, {@link #dot(float[], byte[], int)}. The squared norms of the
+ * centroids are precomputed as well, so a cosine distance costs 2m lookups, {@link #distance(float[], float, byte[], int)}.<p>
+ * Training runs k-means one subspace at a time over a random sample, the assignment step spread across cores with
+ * per-chunk partial sums merged afterwards.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public class ProductQuantizer implements Serializable {
+	private static final long serialVersionUID = 4682917713346208571L;
+	private static boolean DEBUG = false;
+	public static final int CENTROIDS = 256;
+	// k-means passes per subspace, stopping early once no assignment changes
+	public static int iterations = 20;
+	// vectors sampled for training
+	public static int trainingSize = 32768;
+
+	private int dimension;
+	private int m;
+	// start of each subspace, m + 1 entries
+	private int[] starts;
+	// codebooks[j][c * width + d], width = starts[j + 1] - starts[j]
+	private float[][] codebooks;
+	// squared L2 norm of each centroid, centroidNorms[j * CENTROIDS + c]
+	private float[] centroidNorms;
+
+	public ProductQuantizer() {}
+
+	private ProductQuantizer(int dimension, int m) {
+		if(m < 1 || m > dimension)
+			throw new IllegalArgumentException(String.format("subspaces=%d, dimension=%d", m, dimension));
+		this.dimension = dimension;
+		this.m = m;
+		this.starts = new int[m + 1];
+		for(int j = 0; j <= m; j++)
+			starts[j] = (int) ((long) j * dimension / m);
+		this.codebooks = new float[m][];
+		this.centroidNorms = new float[m * CENTROIDS];
+	}
+
+	/**
+	 * Learn the codebooks from a set of vectors.
+	 * @param vectors the training vectors, sampled down to {@link #trainingSize}
+	 * @param m the number of subspaces, the code length in bytes
+	 * @param seed random seed for sampling and centroid initialization
+	 * @return the trained quantizer
+	 */
+	public static ProductQuantizer train(List<? extends FloatTensor> vectors, int m, long seed) {
+		if(vectors.isEmpty())
+			throw new IllegalArgumentException("no training vectors");
+		long tims = System.currentTimeMillis();
+		int dimension = vectors.get(0).size();
+		ProductQuantizer pq = new ProductQuantizer(dimension, m);
+		Random random = new Random(seed);
+		int n = Math.min(vectors.size(), trainingSize);
+		int[] sample = sample(vectors.size(), n, random);
+		float[] data = new float[n * dimension];
+		Parallel.parallelFor(0, n, i -> {
+			FloatTensor v = vectors.get(sample[i]);
+			for(int d = 0; d < dimension; d++)
+				data[i * dimension + d] = v.getFloat(d);
+		});
+		for(int j = 0; j < m; j++)
+			pq.setCodebook(j, kmeans(data, n, dimension, pq.starts[j], pq.starts[j + 1] - pq.starts[j], random));
+		if(DEBUG)
+			System.out.println("Trained "+m+" subspaces on "+n+" vectors in "+(System.currentTimeMillis()-tims)+" ms.");
+		return pq;
+	}
+
+	/**
+	 * Rebuild a quantizer from its codebooks, as read back by {@link IndexFile#load(java.nio.file.Path)}.
+	 * @param dimension the vector dimension
+	 * @param codebooks one per subspace, {@link #CENTROIDS} * width centroid coordinates each
+	 */
+	static ProductQuantizer of(int dimension, float[][] codebooks) {
+		ProductQuantizer pq = new ProductQuantizer(dimension, codebooks.length);
+		for(int j = 0; j < codebooks.length; j++) {
+			if(codebooks[j].length != CENTROIDS * pq.width(j))
+				throw new IllegalArgumentException("codebook "+j+" has "+codebooks[j].length+" coordinates");
+			pq.setCodebook(j, codebooks[j]);
+		}
+		return pq;
+	}
+
+	/**
+	 * Install the codebook of subspace j and the squared norms of its centroids.
+	 */
+	private void setCodebook(int j, float[] codebook) {
+		int width = width(j);
+		for(int c = 0; c < CENTROIDS; c++) {
+			float s = 0f;
+			for(int d = 0; d < width; d++) {
+				float x = codebook[c * width + d];
+				s += x * x;
+			}
+			centroidNorms[j * CENTROIDS + c] = s;
+		}
+		codebooks[j] = codebook;
+	}
+
+	/**
+	 * @return the number of dimensions in subspace j
+	 */
+	int width(int j) {
+		return starts[j + 1] - starts[j];
+	}
+
+	/**
+	 * @return the codebook of subspace j, {@link #CENTROIDS} * {@link #width(int)} centroid coordinates
+	 */
+	float[] getCodebook(int j) {
+		return codebooks[j];
+	}
+
+	/**
+	 * A random subset of n of the ids 0..total, all of them if n == total.
+	 */
+	private static int[] sample(int total, int n, Random random) {
+		int[] ids = new int[total];
+		for(int i = 0; i < total; i++)
+			ids[i] = i;
+		for(int i = 0; i < n && n < total; i++) {
+			int r = i + random.nextInt(total - i);
+			int t = ids[i];
+			ids[i] = ids[r];
+			ids[r] = t;
+		}
+		return ids;
+	}
+
+	/**
+	 * k-means over columns start .. start + width of the sample rows.
+	 * @return CENTROIDS * width centroid coordinates, unused centroids repeating the last one when the sample is small
+	 */
+	private static float[] kmeans(float[] data, int n, int dimension, int start, int width, Random random) {
+		int k = Math.min(CENTROIDS, n);
+		float[] centroids = new float[CENTROIDS * width];
+		int[] init = sample(n, k, random);
+		for(int c = 0; c < k; c++)
+			System.arraycopy(data, init[c] * dimension + start, centroids, c * width, width);
+		int[] assignment = new int[n];
+		Arrays.fill(assignment, -1);
+		int chunks = Math.min(n, Runtime.getRuntime().availableProcessors() * 4);
+		double[][] sums = new double[chunks][k * width];
+		int[][] counts = new int[chunks][k];
+		int[] changed = new int[chunks];
+		for(int iter = 0; iter < iterations; iter++) {
+			float[] current = centroids;
+			Parallel.parallelFor(0, chunks, chunk -> {
+				double[] sum = sums[chunk];
+				int[] count = counts[chunk];
+				Arrays.fill(sum, 0);
+				Arrays.fill(count, 0);
+				int moved = 0;
+				for(int i = (int) ((long) chunk * n / chunks); i < (int) ((long) (chunk + 1) * n / chunks); i++) {
+					int off = i * dimension + start;
+					int best = nearest(data, off, current, k, width);
+					if(best != assignment[i]) {
+						assignment[i] = best;
+						++moved;
+					}
+					++count[best];
+					for(int d = 0; d < width; d++)
+						sum[best * width + d] += data[off + d];
+				}
+				changed[chunk] = moved;
+			});
+			int moved = 0;
+			for(int chunk = 0; chunk < chunks; chunk++)
+				moved += changed[chunk];
+			for(int c = 0; c < k; c++) {
+				int count = 0;
+				for(int chunk = 0; chunk < chunks; chunk++)
+					count += counts[chunk][c];
+				if(count == 0) {
+					// empty cluster, reseed at a random sample
+					System.arraycopy(data, random.nextInt(n) * dimension + start, centroids, c * width, width);
+					continue;
+				}
+				for(int d = 0; d < width; d++) {
+					double s = 0;
+					for(int chunk = 0; chunk < chunks; chunk++)
+						s += sums[chunk][c * width + d];
+					centroids[c * width + d] = (float) (s / count);
+				}
+			}
+			if(moved == 0)
+				break;
+		}
+		for(int c = k; c < CENTROIDS; c++)
+			System.arraycopy(centroids, (k - 1) * width, centroids, c * width, width);
+		return centroids;
+	}
+
+	private static int nearest(float[] x, int off, float[] centroids, int k, int width) {
+		int best = 0;
+		float bestDistance = Float.MAX_VALUE;
+		for(int c = 0; c < k; c++) {
+			float dist = 0f;
+			int co = c * width;
+			for(int d = 0; d < width; d++) {
+				float diff = x[off + d] - centroids[co + d];
+				dist += diff * diff;
+			}
+			if(dist < bestDistance) {
+				bestDistance = dist;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Encode a vector.
+	 * @param vector the vector, {@link #getDimension()} elements
+	 * @param codes receives m bytes
+	 * @param offset position of the first code byte
+	 */
+	public void encode(FloatTensor vector, byte[] codes, int offset) {
+		float[] x = new float[dimension];
+		for(int d = 0; d < dimension; d++)
+			x[d] = vector.getFloat(d);
+		for(int j = 0; j < m; j++)
+			codes[offset + j] = (byte) nearest(x, starts[j], codebooks[j], CENTROIDS, starts[j + 1] - starts[j]);
+	}
+
+	/**
+	 * Encode a list of vectors in parallel.
+	 * @param vectors the vectors
+	 * @return vectors.size() * m bytes, the codes of vector i starting at i * m
+	 */
+	public byte[] encode(List<? extends FloatTensor> vectors) {
+		byte[] codes = new byte[Math.multiplyExact(vectors.size(), m)];
+		Parallel.parallelFor(0, vectors.size(), i -> encode(vectors.get(i), codes, i * m));
+		return codes;
+	}
+
+	/**
+	 * Reconstruct an approximation of an encoded vector.
+	 * @param codes the codes
+	 * @param offset position of the first code byte
+	 * @param out receives {@link #getDimension()} elements
+	 */
+	public void decode(byte[] codes, int offset, FloatTensor out) {
+		for(int j = 0; j < m; j++) {
+			int width = starts[j + 1] - starts[j];
+			int c = codes[offset + j] & 0xFF;
+			for(int d = 0; d < width; d++)
+				out.setFloat(starts[j] + d, codebooks[j][c * width + d]);
+		}
+	}
+
+	/**
+	 * Build the per query lookup table of subvector dot products.
+	 * @param query the query vector
+	 * @param table receives m * {@link #CENTROIDS} entries, or null to allocate
+	 * @return the table, entry j * CENTROIDS + c being the dot product of query subspace j with centroid c
+	 */
+	public float[] table(FloatTensor query, float[] table) {
+		if(table == null || table.length < m * CENTROIDS)
+			table = new float[m * CENTROIDS];
+		float[] q = new float[dimension];
+		for(int d = 0; d < dimension; d++)
+			q[d] = query.getFloat(d);
+		for(int j = 0; j < m; j++) {
+			int start = starts[j];
+			int width = starts[j + 1] - start;
+			float[] codebook = codebooks[j];
+			for(int c = 0; c < CENTROIDS; c++) {
+				float s = 0f;
+				int co = c * width;
+				for(int d = 0; d < width; d++)
+					s += q[start + d] * codebook[co + d];
+				table[j * CENTROIDS + c] = s;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Approximate dot product of the table's query with an encoded vector.
+	 * @param table from {@link #table(FloatTensor, float[])}
+	 * @param codes the codes
+	 * @param offset position of the first code byte
+	 * @return the sum of m table entries
+	 */
+	public float dot(float[] table, byte[] codes, int offset) {
+		float s = 0f;
+		for(int j = 0; j < m; j++)
+			s += table[j * CENTROIDS + (codes[offset + j] & 0xFF)];
+		return s;
+	}
+
+	/**
+	 * Approximate cosine distance of the table's query from an encoded vector, the vector's norm being that
+	 * of its reconstruction.
+	 * @param table from {@link #table(FloatTensor, float[])}
+	 * @param queryNorm the L2 norm of the query
+	 * @param codes the codes
+	 * @param offset position of the first code byte
+	 * @return 1 - cosine similarity
+	 */
+	public float distance(float[] table, float queryNorm, byte[] codes, int offset) {
+		float dot = 0f, norm = 0f;
+		for(int j = 0; j < m; j++) {
+			int e = j * CENTROIDS + (codes[offset + j] & 0xFF);
+			dot += table[e];
+			norm += centroidNorms[e];
+		}
+		if(norm == 0f || queryNorm == 0f)
+			return 1f;
+		return 1f - dot / (queryNorm * (float) Math.sqrt(norm));
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * @return the number of subspaces, the code length in bytes
+	 */
+	public int getM() {
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s dimension=%d subspaces=%d centroids=%d", this.getClass().getName(), dimension, m, CENTROIDS);
+	}
+}
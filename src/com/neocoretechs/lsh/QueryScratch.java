@@ -0,0 +1,122 @@
+package com.neocoretechs.lsh;
+
+import java.util.Arrays;
+
+import com.neocoretechs.lsh.metrics.QueryProfile;
+
+/**
+ * Per-thread working buffers for a query, so concurrent queries on an {@link Index} never share
+ * mutable state and a thread reuses its buffers from one query to the next instead of allocating.
+ * Buffers grow on demand and are never shrunk.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+final class QueryScratch {
+	private static final ThreadLocal<QueryScratch> SCRATCH = ThreadLocal.withInitial(QueryScratch::new);
+
+	// visited bitset over vector ids, all zero between queries
+	long[] visited = new long[0];
+	// candidate ids gathered from the buckets
+	int[] candidates = new int[256];
+	int count;
+	// margins of the query code bits and the probe codes derived from them
+	float[] margins = new float[Integer.SIZE];
+	int[] probeCodes = new int[1];
+	// probe codes and bucket slots of every table, probes entries per table, and how many each table used
+	private int[] codes = new int[0];
+	private int[] slots = new int[0];
+	private int[] probeCounts = new int[0];
+	private HashTable[] owners = new HashTable[0];
+	// reused when the query is timed without a caller supplied profile
+	final QueryProfile profile = new QueryProfile();
+	// product quantization lookup table of the current query
+	float[] pqTable;
+	// Hamming prefilter buffers
+	private long[] querySketch = new long[0];
+	private int[] distances = new int[0];
+	private int[] histogram = new int[0];
+
+	private QueryScratch() {}
+
+	/**
+	 * @return the calling thread's scratch, reset for a new query over the given number of vectors
+	 */
+	static QueryScratch get(int vectors, int probes) {
+		QueryScratch scratch = SCRATCH.get();
+		int words = (vectors + 63) >>> 6;
+		if(scratch.visited.length < words)
+			scratch.visited = new long[words];
+		if(scratch.probeCodes.length < probes)
+			scratch.probeCodes = new int[probes];
+		scratch.count = 0;
+		return scratch;
+	}
+
+	int[] codes(int n) {
+		if(codes.length < n)
+			codes = new int[n];
+		return codes;
+	}
+
+	int[] slots(int n) {
+		if(slots.length < n)
+			slots = new int[n];
+		return slots;
+	}
+
+	HashTable[] owners(int n) {
+		if(owners.length < n)
+			owners = new HashTable[n];
+		return owners;
+	}
+
+	int[] probeCounts(int tables) {
+		if(probeCounts.length < tables)
+			probeCounts = new int[tables];
+		return probeCounts;
+	}
+
+	long[] querySketch(int words) {
+		if(querySketch.length < words)
+			querySketch = new long[words];
+		return querySketch;
+	}
+
+	int[] distances(int count) {
+		if(distances.length < count)
+			distances = new int[Math.max(count, candidates.length)];
+		return distances;
+	}
+
+	/**
+	 * @return a zeroed histogram of at least the given number of bins
+	 */
+	int[] histogram(int bins) {
+		if(histogram.length < bins)
+			histogram = new int[bins];
+		else
+			Arrays.fill(histogram, 0, bins, 0);
+		return histogram;
+	}
+
+	/**
+	 * Add a candidate id unless it was already visited during this query.
+	 * @param id the vector id
+	 */
+	void visit(int id) {
+		long bit = 1L << id;
+		if((visited[id >>> 6] & bit) == 0) {
+			visited[id >>> 6] |= bit;
+			if(count == candidates.length)
+				candidates = Arrays.copyOf(candidates, count << 1);
+			candidates[count++] = id;
+		}
+	}
+
+	/**
+	 * Zero the visited bits of the gathered candidates, leaving the bitset clean for the next query.
+	 */
+	void clearVisited() {
+		for(int i = 0; i < count; i++)
+			visited[candidates[i] >>> 6] = 0;
+	}
+}
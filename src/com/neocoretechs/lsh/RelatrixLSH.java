@@ -4,16 +4,30 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntFunction;
 
-import com.neocoretechs.lsh.families.CosineHash;
+import com.neocoretechs.lsh.families.DistanceComparator2;
+import com.neocoretechs.lsh.families.ProjectionHash;
+import com.neocoretechs.lsh.metrics.LshMetrics;
+import com.neocoretechs.lsh.metrics.Phase;
+import com.neocoretechs.lsh.metrics.QueryEvent;
+import com.neocoretechs.lsh.metrics.QueryProfile;
 import com.neocoretechs.relatrix.DuplicateKeyException;
 import com.neocoretechs.relatrix.Relatrix;
 import com.neocoretechs.relatrix.Result;
+import com.neocoretechs.wordembedding.BF16FloatTensor;
+import com.neocoretechs.wordembedding.EmbeddingFile;
+import com.neocoretechs.wordembedding.EmbeddingMatrix;
+import com.neocoretechs.wordembedding.F16FloatTensor;
 import com.neocoretechs.wordembedding.FloatTensor;
 import com.neocoretechs.wordembedding.Parallel;
+import com.neocoretechs.wordembedding.Q8FloatTensor;
 
 /**
  * An {@link Index} contains one or more locality sensitive hash tables. These hash
@@ -41,22 +55,47 @@ import com.neocoretechs.wordembedding.Parallel;
  * In general, w is a hyperparameter that needs to be tuned for specific applications and datasets. 
  * A good choice of w can significantly impact the performance of the LSH algorithm.<p>
  * This class is designed to be stored in the Relatrix database to serve as a template for encoding and retrieving
- * a given set of floating point tensors.
+ * a given set of floating point tensors. Instances stored before the tables became {@link ProjectionHash} sets
+ * fail to deserialize with an {@link java.io.InvalidClassException} and their relations must be ingested again.
  * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
  */
 public class RelatrixLSH implements Serializable, Comparable {
-	private static final long serialVersionUID = -5410017645908038641L;
-	private static boolean DEBUG = true;
+	private static final long serialVersionUID = 3917204482716650132L;
+	private static boolean DEBUG = false;
 	public static final int VECTOR_DIMENSION = 50;
 	public static int numberOfHashTables = 16;
 	public static int numberOfHashes = 12;
+	/**
+	 * Buckets probed per table by the query methods that do not take an explicit probe count. With more than
+	 * one, the buckets reached by flipping the query's lowest margin bits are fetched as well.
+	 */
+	public static int numberOfProbes = 1;
+	/**
+	 * Store vectors in the relations written by {@link #add(String, FloatTensor)} as int8 {@link Q8FloatTensor}s,
+	 * a quarter the size of float32. Hashing always uses the full precision vector.
+	 */
+	public static boolean quantize = false;
+	/**
+	 * Element type of the vectors stored by {@link #add(String, FloatTensor)} when not quantized,
+	 * {@link EmbeddingFile#TYPE_F16} or {@link EmbeddingFile#TYPE_BF16} halve the size of each relation.
+	 */
+	public static int precision = EmbeddingFile.TYPE_F32;
+	/**
+	 * Batches hashed ahead of the writer by {@link #addAll(EmbeddingMatrix, int)}, bounding the memory held by
+	 * relations waiting to be stored.
+	 */
+	public static int ingestQueueDepth = 4;
 
 	/**
 	 * Contains the mapping between a combination of a number of hashes (encoded
 	 * using an integer) and a list of possible nearest neighbours
 	 */
-	private List<CosineHash[]> hashTable;
+	private List<ProjectionHash> hashTable;
 	private UUID key;
+	// when set, relations hold the vector's product quantization codes instead of the vector
+	private ProductQuantizer productQuantizer;
+	// buckets probed per table by the query methods without a probe count, numberOfProbes when 0
+	private int probes;
 	
 	public RelatrixLSH() {}
 	/**
@@ -70,28 +109,46 @@ public class RelatrixLSH implements Serializable, Comparable {
 	 *            functions, and is used therefore.
 	 */
 	public RelatrixLSH(int numberOfHashes, int numberOfHashTables, int projectionVectorSize) {
+		if(numberOfHashTables > BucketKey.MAX_TABLES)
+			throw new IllegalArgumentException("numberOfHashTables must be at most "+BucketKey.MAX_TABLES+":"+numberOfHashTables);
 		this.key = UUID.randomUUID();
-		this.hashTable = new ArrayList<CosineHash[]>();
+		this.hashTable = new ArrayList<ProjectionHash>();
 		for(int i = 0; i < numberOfHashTables; i++) {
-			final CosineHash[] cHash = new CosineHash[numberOfHashes];
-			this.hashTable.add(cHash);
-			if(numberOfHashes > 64)
-				Parallel.parallelFor(0, numberOfHashes, j -> {
-					cHash[j] = new CosineHash(projectionVectorSize);
-				});
-			else
-				for(int j = 0; j < numberOfHashes; j++)
-					cHash[j] = new CosineHash(projectionVectorSize);
+			this.hashTable.add(new ProjectionHash(numberOfHashes, projectionVectorSize));
 		}
 	}
 	
+	/**
+	 * Initialize new hash tables shaped by a config, such as one recommended by {@link IndexTuner}.
+	 * @param config hashes per table, number of tables and probes per table
+	 * @param projectionVectorSize the dimension of the vectors
+	 */
+	public RelatrixLSH(IndexConfig config, int projectionVectorSize) {
+		this(config.getNumberOfHashes(), config.getNumberOfHashTables(), projectionVectorSize);
+		this.probes = config.getNumberOfProbes();
+	}
+	
+	/**
+	 * @return the buckets probed per table by {@link #query(FloatTensor)} and {@link #queryParallel(FloatTensor)}
+	 */
+	public int getNumberOfProbes() {
+		return probes > 0 ? probes : numberOfProbes;
+	}
+	
+	/**
+	 * @return the shape of these tables
+	 */
+	public IndexConfig getConfig() {
+		return new IndexConfig(getNumberOfHashes(), hashTable.size(), getNumberOfProbes());
+	}
+	
 	public UUID getKey() {
 		return key;
 	}
 	
 	/**
 	 * Query the hash table for a vector. It calculates the hash for the vector,
-	 * and does a lookup in the hash table. If no candidates are found, an empty
+	 * and does a lookup of its {@link BucketKey} in each table. If no candidates are found, an empty
 	 * list is returned, otherwise, the list of candidates is returned.
 	 * 
 	 * @param query
@@ -105,39 +162,144 @@ public class RelatrixLSH implements Serializable, Comparable {
 	 * @throws IllegalArgumentException 
 	 */
 	public List<Result> query(FloatTensor query) throws IllegalArgumentException, ClassNotFoundException, IllegalAccessException, IOException {
+		return query(query, getNumberOfProbes());
+	}
+	
+	/**
+	 * Query the hash tables for a vector, probing the given number of buckets in each table.
+	 * @param query The query vector.
+	 * @param probes The number of buckets to fetch per table, including the query's own.
+	 * @return the candidates as word, FloatTensor results
+	 * @throws IOException 
+	 * @throws IllegalAccessException 
+	 * @throws ClassNotFoundException 
+	 * @throws IllegalArgumentException 
+	 */
+	public List<Result> query(FloatTensor query, int probes) throws IllegalArgumentException, ClassNotFoundException, IllegalAccessException, IOException {
+		return query(query, probes, null);
+	}
+	
+	/**
+	 * Query the hash tables for a vector, recording the hash and fetch times and the size of every fetched bucket in the
+	 * profile if one is given and in {@link LshMetrics} while it is enabled.
+	 * @param query The query vector.
+	 * @param probes The number of buckets to fetch per table, including the query's own.
+	 * @param profile receives this query's phase times and counts, or null
+	 * @return the candidates as word, FloatTensor results
+	 * @throws IOException 
+	 * @throws IllegalAccessException 
+	 * @throws ClassNotFoundException 
+	 * @throws IllegalArgumentException 
+	 */
+	public List<Result> query(FloatTensor query, int probes, QueryProfile profile) throws IllegalArgumentException, ClassNotFoundException, IllegalAccessException, IOException {
+		boolean metrics = LshMetrics.enabled;
+		QueryEvent event = new QueryEvent();
+		if(profile == null && (metrics || event.isEnabled()))
+			profile = new QueryProfile();
+		if(profile != null) {
+			event.begin();
+			profile.start();
+		}
 		ArrayList<Result> res = new ArrayList<Result>();
+		float[] margins = new float[getNumberOfHashes()];
+		int[] codes = new int[Math.max(1, probes)];
 		for(int i = 0; i < hashTable.size(); i++) {
-			Integer combinedHash = hash(hashTable.get(i), query);
-			if(DEBUG)
-				System.out.println("Querying combined hash for query "+i+" of "+hashTable.size()+":"+combinedHash);
-			Iterator<?> it = Relatrix.findSet(combinedHash, '?', '?');
-			int cnt = 0;
-			while(it.hasNext()) {
-				res.add((Result) it.next());
-				System.out.print(++cnt+"\r");
+			int n = probe(hashTable.get(i), query, probes, margins, codes);
+			if(profile != null)
+				profile.lap(Phase.HASH);
+			for(int p = 0; p < n; p++) {
+				Iterator<?> it = Relatrix.findSet(new BucketKey(key, i, codes[p]), '?', '?');
+				int cnt = 0;
+				while(it.hasNext()) {
+					res.add((Result) it.next());
+					++cnt;
+				}
+				if(profile != null) {
+					profile.bucket(cnt);
+					if(metrics)
+						LshMetrics.bucket(cnt);
+				}
 			}
-			System.out.println();
+			if(profile != null)
+				profile.lap(Phase.FETCH);
+		}
+		if(profile != null) {
+			profile.setCandidates(res.size());
+			profile.setResults(res.size());
+			if(metrics)
+				LshMetrics.record(profile);
+			event.commit(profile);
 		}
 		return res;
 	}
+	
 	public List<Result> queryParallel(FloatTensor query) throws IllegalArgumentException, ClassNotFoundException, IllegalAccessException, IOException {
+		return queryParallel(query, getNumberOfProbes());
+	}
+	
+	/**
+	 * Query all hash tables in one parallel fetch, probing the given number of buckets in each table.
+	 * @param query The query vector.
+	 * @param probes The number of buckets to fetch per table, including the query's own.
+	 * @return the candidates as word, FloatTensor results
+	 * @throws IOException 
+	 * @throws IllegalAccessException 
+	 * @throws ClassNotFoundException 
+	 * @throws IllegalArgumentException 
+	 */
+	public List<Result> queryParallel(FloatTensor query, int probes) throws IllegalArgumentException, ClassNotFoundException, IllegalAccessException, IOException {
+		boolean metrics = LshMetrics.enabled;
+		QueryEvent event = new QueryEvent();
+		QueryProfile profile = (metrics || event.isEnabled()) ? new QueryProfile() : null;
+		if(profile != null) {
+			event.begin();
+			profile.start();
+		}
 		List<Result> res = new ArrayList<Result>();
 		ArrayList<Object> iq = new ArrayList<Object>();
+		float[] margins = new float[getNumberOfHashes()];
+		int[] codes = new int[Math.max(1, probes)];
+		int[] tableProbes = new int[hashTable.size()];
+		int[] tableCodes = new int[hashTable.size() * codes.length];
 		for(int i = 0; i < hashTable.size(); i++) {
-			Integer combinedHash = hash(hashTable.get(i), query);
-			iq.add(combinedHash);
+			tableProbes[i] = probe(hashTable.get(i), query, probes, margins, codes);
+			System.arraycopy(codes, 0, tableCodes, i * codes.length, tableProbes[i]);
 		}
-		long tims = System.currentTimeMillis();
-		if(DEBUG)
-			System.out.println("Querying combined hash for table of "+hashTable.size());
+		if(profile != null)
+			profile.lap(Phase.HASH);
+		// the probes of a table are distinct codes and the keys of different tables never collide
+		for(int i = 0; i < hashTable.size(); i++)
+			for(int p = 0; p < tableProbes[i]; p++)
+				iq.add(new BucketKey(key, i, tableCodes[i * codes.length + p]));
+		if(profile != null)
+			profile.lap(Phase.DEDUPE);
 		res = Relatrix.findSetParallel(iq, '?', '?');
-		if(DEBUG)
-			System.out.println((System.currentTimeMillis()-tims)+" ms.");
+		if(profile != null) {
+			profile.lap(Phase.FETCH);
+			profile.setCandidates(res.size());
+			profile.setResults(res.size());
+			if(metrics)
+				LshMetrics.record(profile);
+			event.commit(profile);
+		}
 		return res;
 	}
+	
+	/**
+	 * The probe sequence of one table for a query.
+	 * @return the number of codes written to codes
+	 */
+	private int probe(ProjectionHash hash, FloatTensor query, int probes, float[] margins, int[] codes) {
+		if(probes <= 1) {
+			codes[0] = hash.hash(query);
+			return 1;
+		}
+		int code = hash.hash(query, margins);
+		return hash.probes(code, margins, probes, codes);
+	}
 
 	/**
-	 * Add a vector to the index.
+	 * Add a vector to the index, one relation per table keyed by its {@link BucketKey}.
 	 * @param word the word that vectorized
 	 * @param vector the embedding of the word
 	 * @throws DuplicateKeyException 
@@ -146,29 +308,243 @@ public class RelatrixLSH implements Serializable, Comparable {
 	 * @throws IllegalAccessException 
 	 */
 	public void add(String word, FloatTensor vector) throws IllegalAccessException, ClassNotFoundException, IOException {
+		Comparable<?> stored = storageForm(vector);
 		for(int i = 0; i < hashTable.size(); i++) {
-			Integer combinedHash = hash(hashTable.get(i), vector);
+			BucketKey bucket = new BucketKey(key, i, hashTable.get(i).hash(vector));
 			try {
-				Relatrix.store(combinedHash, word, vector);
+				Relatrix.store(bucket, word, stored);
 			} catch (DuplicateKeyException e) {
-				System.out.println("duplicate key:"+combinedHash+" for "+word);
+				System.out.println("duplicate key:"+bucket+" for "+word);
 			}
 		}
 	}
 	
 	/**
-	 * Calculate the combined hash for a vector.
-	 * @param hash one of numberOfHashes
-	 * @param vector The vector to calculate the combined hash for.
-	 * @return An integer representing a combined hash.
+	 * Bulk add every row of a matrix, see {@link #addAll(List, List, int)}.
+	 * @param matrix the vectors, with their words set
+	 * @param commitRate words per batch stored
+	 * @return the number of relations stored
+	 * @throws IOException 
+	 * @throws ClassNotFoundException 
+	 * @throws IllegalAccessException 
+	 */
+	public long addAll(EmbeddingMatrix matrix, int commitRate) throws IllegalAccessException, ClassNotFoundException, IOException {
+		return ingest(matrix.rows(), matrix::word, matrix::row, commitRate);
+	}
+	
+	/**
+	 * Bulk add vectors to the index in batches of commitRate words.<p>
+	 * A hashing thread computes the code of every vector in every table and its stored form, spread across cores,
+	 * while the calling thread writes the previous batch, so hashing overlaps storage. At most
+	 * {@link #ingestQueueDepth} hashed batches wait for the writer. Each batch goes to the store in one
+	 * {@link Relatrix#multiStore(ArrayList)} call, its relations in {@link BucketKey} order so neighbouring keys are
+	 * written together, through the same {@link Relatrix} store the query methods read. A batch that fails to store
+	 * stops the ingest with an {@link IOException} naming its words, the batches before it remaining stored.
+	 * @param words the words, parallel to vectors
+	 * @param vectors the embeddings of the words
+	 * @param commitRate words per batch stored
+	 * @return the number of relations stored
+	 * @throws IOException 
+	 * @throws ClassNotFoundException 
+	 * @throws IllegalAccessException 
+	 */
+	public long addAll(List<String> words, List<? extends FloatTensor> vectors, int commitRate) throws IllegalAccessException, ClassNotFoundException, IOException {
+		if(words.size() != vectors.size())
+			throw new IllegalArgumentException("words and vectors differ in size:"+words.size()+" "+vectors.size());
+		return ingest(words.size(), words::get, vectors::get, commitRate);
+	}
+	
+	/**
+	 * One batch of the ingest pipeline, its relations grouped by table and sorted by code within each.
 	 */
-	private Integer hash(CosineHash[] hash, FloatTensor vector){
-		int hashes[] = new int[hash.length];
-		for(int i = 0 ; i < hash.length ; i++){
-			hashes[i] = hash[i].hash(vector);
+	private static final class Batch {
+		static final Batch END = new Batch(0, 0, 0);
+		final int first;
+		final int count;
+		final String[] words;
+		final Comparable<?>[] stored;
+		// for table t at t * count onward, the code in the high int and the word within the batch in the low int
+		final long[] relations;
+		Throwable error;
+
+		Batch(int first, int count, int tables) {
+			this.first = first;
+			this.count = count;
+			this.words = new String[count];
+			this.stored = new Comparable<?>[count];
+			this.relations = new long[count * tables];
+		}
+	}
+	
+	private long ingest(int count, IntFunction<String> words, IntFunction<FloatTensor> vectors, int commitRate) throws IllegalAccessException, ClassNotFoundException, IOException {
+		if(commitRate < 1)
+			throw new IllegalArgumentException("commitRate:"+commitRate);
+		int tables = hashTable.size();
+		BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(Math.max(1, ingestQueueDepth));
+		Thread hasher = new Thread(() -> {
+			try {
+				for(int first = 0; first < count; first += commitRate) {
+					Batch batch = new Batch(first, Math.min(commitRate, count - first), tables);
+					Parallel.parallelFor(0, batch.count, i -> {
+						FloatTensor vector = vectors.apply(batch.first + i);
+						batch.words[i] = words.apply(batch.first + i);
+						batch.stored[i] = storageForm(vector);
+						for(int t = 0; t < tables; t++)
+							batch.relations[t * batch.count + i] = ((long) hashTable.get(t).hash(vector) << 32) | i;
+					});
+					for(int t = 0; t < tables; t++)
+						Arrays.sort(batch.relations, t * batch.count, (t + 1) * batch.count);
+					queue.put(batch);
+				}
+				queue.put(Batch.END);
+			} catch(InterruptedException e) {
+				// the writer has stopped
+			} catch(RuntimeException | Error e) {
+				Batch failed = new Batch(0, 0, 0);
+				failed.error = e;
+				try {
+					queue.put(failed);
+				} catch(InterruptedException ie) {}
+			}
+		}, "RelatrixLSH ingest hasher");
+		hasher.setDaemon(true);
+		hasher.start();
+		long tims = System.currentTimeMillis();
+		long tim2 = tims;
+		long stored = 0;
+		try {
+			for(;;) {
+				Batch batch = queue.take();
+				if(batch == Batch.END)
+					break;
+				if(batch.error != null)
+					throw new IOException("hashing failed", batch.error);
+				stored += write(batch);
+				if(DEBUG && (System.currentTimeMillis()-tim2) > 5000) {
+					tim2 = System.currentTimeMillis();
+					System.out.println("Stored "+(batch.first + batch.count)+" of "+count+" vectors in "+(tim2-tims)+" ms.");
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("ingest interrupted after "+stored+" relations", e);
+		} finally {
+			hasher.interrupt();
 		}
-		Integer combinedHash = CosineHash.combine(hashes);
-		return combinedHash;
+		if(DEBUG)
+			System.out.println("Stored "+count+" vectors as "+stored+" relations in "+(System.currentTimeMillis()-tims)+" ms.");
+		return stored;
+	}
+	
+	/**
+	 * Store the relations of one batch with a single multi store call, each a bucket key, word and stored form triple.
+	 * @return the number of relations stored
+	 * @throws IOException if the store rejects the batch, naming the words it held
+	 */
+	@SuppressWarnings("rawtypes")
+	private long write(Batch batch) throws IllegalAccessException, ClassNotFoundException, IOException {
+		ArrayList<Comparable[]> relations = new ArrayList<Comparable[]>(batch.relations.length);
+		for(int r = 0; r < batch.relations.length; r++) {
+			int i = (int) batch.relations[r];
+			relations.add(new Comparable[] {new BucketKey(key, r / batch.count, (int) (batch.relations[r] >> 32)), batch.words[i], batch.stored[i]});
+		}
+		try {
+			Relatrix.multiStore(relations);
+		} catch (DuplicateKeyException e) {
+			throw new IOException("duplicate key storing the batch of words "+batch.first+" to "+(batch.first + batch.count - 1), e);
+		}
+		return relations.size();
+	}
+	
+	/**
+	 * Store {@link PQCodes} in place of vectors in every relation added from now on. The quantizer is part of this
+	 * object and is stored with it, so codes can be scored after the index is fetched back.
+	 * @param productQuantizer a trained quantizer, or null to store vectors
+	 */
+	public void setProductQuantizer(ProductQuantizer productQuantizer) {
+		this.productQuantizer = productQuantizer;
+	}
+	
+	public ProductQuantizer getProductQuantizer() {
+		return productQuantizer;
+	}
+	
+	/**
+	 * Rank query candidates by cosine distance and keep the nearest. Candidates holding {@link PQCodes} are scored
+	 * with m lookups into a per query table, candidates holding tensors exactly.
+	 * @param query the query vector
+	 * @param candidates word, vector or word, codes results from the query methods, duplicates allowed
+	 * @param k the number of neighbors to keep
+	 * @return the nearest distinct candidates, nearest first
+	 */
+	public List<Result> rank(FloatTensor query, List<Result> candidates, int k) {
+		boolean timed = LshMetrics.enabled;
+		long start = timed ? System.nanoTime() : 0L;
+		float[] table = productQuantizer == null ? null : productQuantizer.table(query, null);
+		float queryNorm = query.norm();
+		DistanceComparator2 dc = new DistanceComparator2(query);
+		TopK topK = new TopK(Math.max(1, Math.min(k, candidates.size())));
+		HashSet<Object> seen = new HashSet<Object>();
+		for(int i = 0; i < candidates.size(); i++) {
+			Result result = candidates.get(i);
+			if(!seen.add(result.get(0)))
+				continue;
+			Object stored = result.get(1);
+			float distance;
+			if(stored instanceof PQCodes) {
+				if(table == null)
+					throw new IllegalStateException("candidate holds product quantization codes but this index has no quantizer");
+				distance = productQuantizer.distance(table, queryNorm, ((PQCodes) stored).getCodes(), 0);
+			} else {
+				distance = (float) dc.distance((FloatTensor) stored);
+			}
+			topK.offer(i, distance);
+		}
+		long scored = timed ? System.nanoTime() : 0L;
+		topK.sort();
+		List<Result> ranked = new ArrayList<Result>(topK.size());
+		for(int i = 0; i < topK.size(); i++)
+			ranked.add(candidates.get(topK.id(i)));
+		if(timed) {
+			LshMetrics.phase(Phase.SCORE).record(scored - start);
+			LshMetrics.phase(Phase.SELECT).record(System.nanoTime() - scored);
+		}
+		return ranked;
+	}
+	
+	/**
+	 * The form a vector is stored in, per the product quantizer, {@link #quantize} and {@link #precision}.
+	 */
+	private Comparable<?> storageForm(FloatTensor vector) {
+		if(productQuantizer != null) {
+			byte[] codes = new byte[productQuantizer.getM()];
+			productQuantizer.encode(vector, codes, 0);
+			return new PQCodes(codes);
+		}
+		if(quantize)
+			return vector instanceof Q8FloatTensor ? vector : Q8FloatTensor.quantize(vector);
+		switch(precision) {
+			case EmbeddingFile.TYPE_F16:
+				return vector instanceof F16FloatTensor ? vector : F16FloatTensor.of(vector);
+			case EmbeddingFile.TYPE_BF16:
+				return vector instanceof BF16FloatTensor ? vector : BF16FloatTensor.of(vector);
+			default:
+				return vector;
+		}
+	}
+
+	/**
+	 * Hash a batch of vectors against all tables at once, spread across cores.
+	 * @param vectors the vectors to hash
+	 * @return codes[table][vector]
+	 */
+	public int[][] hash(FloatTensor[] vectors) {
+		int[][] codes = new int[hashTable.size()][vectors.length];
+		Parallel.parallelFor(0, vectors.length, i -> {
+			for(int t = 0; t < codes.length; t++)
+				codes[t][i] = hashTable.get(t).hash(vectors[i]);
+		});
+		return codes;
 	}
 
 	/**
@@ -176,7 +552,7 @@ public class RelatrixLSH implements Serializable, Comparable {
 	 * @return The number of hash functions used in the hash table.
 	 */
 	public int getNumberOfHashes() {
-		return hashTable.get(0).length;
+		return hashTable.get(0).getNumberOfHashes();
 	}
 
 	@Override
@@ -190,15 +566,11 @@ public class RelatrixLSH implements Serializable, Comparable {
 		if(key0 != 0)
 			return key0;
 		for(int i = 0; i < hashTable.size(); i++) {
-			CosineHash[] cos0 = hashTable.get(i);
-			CosineHash[] cos1 = (((RelatrixLSH)o).hashTable.get(i));
-			for(int j = 0; j < cos0.length; j++) {
-				if(j >= cos1.length)
-					return 1;
-				int key1 = cos0[j].compareTo(cos1[j]);
-				if(key1 != 0)
-					return key1;
-			}
+			if(i >= ((RelatrixLSH)o).hashTable.size())
+				return 1;
+			int key1 = hashTable.get(i).compareTo(((RelatrixLSH)o).hashTable.get(i));
+			if(key1 != 0)
+				return key1;
 		}
 		return 0;
 	}
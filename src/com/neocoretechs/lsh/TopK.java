@@ -0,0 +1,124 @@
+package com.neocoretechs.lsh;
+
+/**
+ * Fixed capacity bounded selection of the k smallest scores.<p>
+ * Backed by a binary max-heap held in two parallel primitive arrays, so the worst retained
+ * candidate is always at the root and a new candidate costs one comparison when it does not qualify.
+ * Scores are computed once by the caller and offered along with an int id, typically the candidate's
+ * position in whatever list or matrix it came from. After all offers, {@link #sort()} orders the retained
+ * entries ascending by score in place, and they are read back with {@link #id(int)} and {@link #score(int)}.<p>
+ * Instances are not thread safe, but may be reused across queries via {@link #clear()}.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class TopK {
+	private final float[] scores;
+	private final int[] ids;
+	private int size;
+
+	/**
+	 * @param capacity the k in top k, the most entries that will be retained
+	 */
+	public TopK(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("capacity:"+capacity);
+		this.scores = new float[capacity];
+		this.ids = new int[capacity];
+	}
+
+	public int capacity() {
+		return scores.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return the largest score retained so far, or positive infinity if the heap is not yet full
+	 */
+	public float worst() {
+		return size < scores.length ? Float.POSITIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Offer a candidate. It is retained if the heap has room or its score beats the current worst.
+	 * @param id the candidate id
+	 * @param score the candidate score, smaller is better
+	 * @return true if the candidate was retained
+	 */
+	public boolean offer(int id, float score) {
+		if(size < scores.length) {
+			int i = size++;
+			// sift up
+			while(i > 0) {
+				int parent = (i - 1) >>> 1;
+				if(scores[parent] >= score)
+					break;
+				scores[i] = scores[parent];
+				ids[i] = ids[parent];
+				i = parent;
+			}
+			scores[i] = score;
+			ids[i] = id;
+			return true;
+		}
+		if(size == 0 || score >= scores[0])
+			return false;
+		siftDown(0, id, score, size);
+		return true;
+	}
+
+	/**
+	 * Merge the contents of another, unsorted or sorted, selection into this one.
+	 * @param other the selection to merge
+	 */
+	public void addAll(TopK other) {
+		for(int i = 0; i < other.size; i++)
+			offer(other.ids[i], other.scores[i]);
+	}
+
+	private void siftDown(int i, int id, float score, int n) {
+		int half = n >>> 1;
+		while(i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if(right < n && scores[right] > scores[child])
+				child = right;
+			if(score >= scores[child])
+				break;
+			scores[i] = scores[child];
+			ids[i] = ids[child];
+			i = child;
+		}
+		scores[i] = score;
+		ids[i] = id;
+	}
+
+	/**
+	 * Heap sort the retained entries ascending by score. Further offers after sorting are not
+	 * permitted until {@link #clear()} is called.
+	 * @return the number of entries
+	 */
+	public int sort() {
+		for(int n = size - 1; n > 0; n--) {
+			float s = scores[n];
+			int id = ids[n];
+			scores[n] = scores[0];
+			ids[n] = ids[0];
+			siftDown(0, id, s, n);
+		}
+		return size;
+	}
+
+	public int id(int i) {
+		return ids[i];
+	}
+
+	public float score(int i) {
+		return scores[i];
+	}
+}
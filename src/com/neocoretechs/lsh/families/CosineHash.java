@@ -64,7 +64,9 @@ public class CosineHash implements Serializable, Comparable {
 	    		randomp[d] = (float)val;
 	    	}
 	    }
-	    MemorySegment segment = MemorySegment.ofArray(randomp);
+	    // off-heap, the vector kernels cannot load from a segment over a float[]
+	    MemorySegment segment = Arena.ofAuto().allocate((long) dimensions * Float.BYTES, 64);
+	    MemorySegment.copy(randomp, 0, segment, ValueLayout.JAVA_FLOAT, 0, dimensions);
 	    randomProjection = new F32FloatTensor(dimensions, segment);
 	}
 	
@@ -9,21 +9,50 @@ import com.neocoretechs.wordembedding.FloatTensor;
 /**
  * This comparator can be used to sort candidate neighbors according to their
  * distance to a query vector. Either for linear search or to sort the LSH
- * candidates found in colliding hash bins.
+ * candidates found in colliding hash bins.<p>
+ * The query norm is computed once at construction and candidate norms come from the
+ * tensor's cached norm, so each distance costs a single dot product. When both sides
+ * are normalized the norms drop out entirely.
  * 
  */
 public class DistanceComparator2 implements Comparator<FloatTensor>{
 	private final FloatTensor query;	
+	private final float queryNorm;
 	/**
 	 * @param query
 	 */
 	public DistanceComparator2(FloatTensor query){
 		this.query = query;
+		this.queryNorm = query.norm();
 	}
 	
+	/**
+	 * Cosine distance from the query of this comparator.
+	 * @param other the candidate
+	 * @return 1 - cosine similarity, or 1 if either vector is zero, as {@link com.neocoretechs.lsh.FlatIndex} scores it
+	 */
+	public double distance(FloatTensor other) {
+		double dot = query.dot(0,other,0,other.size());
+		if(query.isNormalized() && other.isNormalized())
+			return 1 - dot;
+		float otherNorm = other.norm();
+		if(queryNorm == 0f || otherNorm == 0f)
+			return 1;
+		return 1 - dot / ((double)queryNorm * otherNorm);
+	}
+	
+	/**
+	 * @return 1 - cosine similarity, or 1 if either vector is zero
+	 */
 	public double distance(FloatTensor one, FloatTensor other) {
 		double distance=0;
-		double similarity = one.dot(0,other,0,other.size()) / Math.sqrt(one.dot(0,one,0,one.size()) * other.dot(0,other,0,other.size()));
+		double similarity = one.dot(0,other,0,other.size());
+		if(!one.isNormalized() || !other.isNormalized()) {
+			double norms = (double)one.norm() * other.norm();
+			if(norms == 0)
+				return 1;
+			similarity /= norms;
+		}
 		distance = 1 - similarity;
 		return distance;
 	}
@@ -33,8 +62,6 @@ public class DistanceComparator2 implements Comparator<FloatTensor>{
 	 */
 	@Override
 	public int compare(FloatTensor one, FloatTensor other) {
-		Double oneDistance = distance(query,one);
-		Double otherDistance = distance(query,other);
-		return oneDistance.compareTo(otherDistance);
+		return Double.compare(distance(one), distance(other));
 	}
 }
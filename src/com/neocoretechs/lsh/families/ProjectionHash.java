@@ -0,0 +1,248 @@
+package com.neocoretechs.lsh.families;
+
+import java.io.Serializable;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.neocoretechs.wordembedding.F32FloatTensor;
+import com.neocoretechs.wordembedding.FloatTensor;
+import com.neocoretechs.wordembedding.Parallel;
+
+/**
+ * The random projections of all the {@link CosineHash} functions of one hash table, held as a single
+ * contiguous numberOfHashes x dimensions matrix.<p>
+ * Hashing a vector is one matrix-vector product whose signs are packed directly into the bits of a
+ * primitive int code, bit i being the sign of projection i, exactly as {@link CosineHash#combine(int[])}
+ * would assemble the individual hashes. Nothing is allocated per hash. Since the code is an int, a table
+ * may concatenate at most 32 hashes.<p>
+ * For multi-probe querying {@link #hash(FloatTensor, float[])} also records each bit's margin, the distance of
+ * the vector from that projection's hyperplane, and {@link #probes(int, float[], int, int[])} derives the codes of
+ * the neighbouring buckets most likely to hold near neighbours by flipping the lowest margin bits first.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public class ProjectionHash implements Serializable, Comparable<ProjectionHash> {
+	private static final long serialVersionUID = -2307724129950316625L;
+	private int numberOfHashes;
+	private int dimensions;
+	private FloatTensor projections;
+	// L2 norm of each projection row, to put margins of different rows on the same scale
+	private transient float[] rowNorms;
+
+	public ProjectionHash() {}
+
+	/**
+	 * @param numberOfHashes the number of concatenated hashes, at most 32
+	 * @param dimensions the dimension of the vectors to hash
+	 */
+	public ProjectionHash(int numberOfHashes, int dimensions) {
+		if(numberOfHashes < 1 || numberOfHashes > Integer.SIZE)
+			throw new IllegalArgumentException("numberOfHashes must be between 1 and "+Integer.SIZE+":"+numberOfHashes);
+		this.numberOfHashes = numberOfHashes;
+		this.dimensions = dimensions;
+		float[] randomp = new float[numberOfHashes * dimensions];
+		if(randomp.length > 1000) {
+			Parallel.parallelFor(0, randomp.length, d -> {
+				randomp[d] = (float) ThreadLocalRandom.current().nextGaussian();
+			});
+		} else {
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			for(int d = 0; d < randomp.length; d++)
+				randomp[d] = (float) rand.nextGaussian();
+		}
+		MemorySegment segment = Arena.ofAuto().allocate((long) randomp.length * Float.BYTES, 64);
+		MemorySegment.copy(randomp, 0, segment, ValueLayout.JAVA_FLOAT, 0, randomp.length);
+		this.projections = new F32FloatTensor(randomp.length, segment);
+	}
+
+	/**
+	 * Wrap an existing projection matrix, such as one read back from an index file.
+	 * @param numberOfHashes the number of concatenated hashes, at most 32
+	 * @param dimensions the dimension of the vectors to hash
+	 * @param projections numberOfHashes x dimensions elements, row-major
+	 */
+	public ProjectionHash(int numberOfHashes, int dimensions, FloatTensor projections) {
+		if(numberOfHashes < 1 || numberOfHashes > Integer.SIZE)
+			throw new IllegalArgumentException("numberOfHashes must be between 1 and "+Integer.SIZE+":"+numberOfHashes);
+		if(projections.size() < numberOfHashes * dimensions)
+			throw new IllegalArgumentException(String.format("projections.size=%d, expected %d", projections.size(), numberOfHashes * dimensions));
+		this.numberOfHashes = numberOfHashes;
+		this.dimensions = dimensions;
+		this.projections = projections;
+	}
+
+	/**
+	 * Calculate the combined hash for a vector.
+	 * @param vector The vector to calculate the combined hash for.
+	 * @return the sign bits of all projections packed into an int
+	 */
+	public int hash(FloatTensor vector) {
+		return projections.signBits(0, vector, numberOfHashes, dimensions);
+	}
+
+	/**
+	 * Calculate the combined hash for a vector and record the margin of each bit.
+	 * @param vector The vector to calculate the combined hash for.
+	 * @param margins receives, for each bit, the distance of the vector from the projection hyperplane
+	 * @return the sign bits of all projections packed into an int
+	 */
+	public int hash(FloatTensor vector, float[] margins) {
+		projections.matvec(0, vector, margins, numberOfHashes, dimensions);
+		float[] norms = rowNorms();
+		int code = 0;
+		for(int i = 0; i < numberOfHashes; i++) {
+			if(margins[i] > 0)
+				code |= 1 << i;
+			margins[i] = Math.abs(margins[i]) / norms[i];
+		}
+		return code;
+	}
+
+	private float[] rowNorms() {
+		float[] norms = rowNorms;
+		if(norms == null) {
+			norms = new float[numberOfHashes];
+			for(int i = 0; i < numberOfHashes; i++)
+				norms[i] = (float) Math.sqrt(projections.dot(i * dimensions, projections, i * dimensions, dimensions));
+			rowNorms = norms;
+		}
+		return norms;
+	}
+
+	/**
+	 * Generate the probe sequence for a code, the code itself followed by the codes reached by flipping sets of
+	 * bits in order of increasing total margin. Perturbation sets are enumerated with the shift/expand scheme of
+	 * multi-probe LSH over the bits sorted by margin, so each set appears once and in score order.
+	 * @param code the combined hash from {@link #hash(FloatTensor, float[])}
+	 * @param margins the margins recorded for the code
+	 * @param numberOfProbes the number of buckets to probe, including the home bucket
+	 * @param out receives the probe codes, at least numberOfProbes long
+	 * @return the number of codes written
+	 */
+	public int probes(int code, float[] margins, int numberOfProbes, int[] out) {
+		if(numberOfProbes < 1)
+			return 0;
+		out[0] = code;
+		int n = numberOfHashes;
+		long max = n >= 63 ? Long.MAX_VALUE : (1L << n) - 1;
+		int limit = (int) Math.min(numberOfProbes, max + 1);
+		if(limit == 1)
+			return 1;
+		// bit positions sorted by ascending margin
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++)
+			order[i] = i;
+		for(int i = 1; i < n; i++) {
+			int o = order[i];
+			int j = i - 1;
+			while(j >= 0 && margins[order[j]] > margins[o]) {
+				order[j + 1] = order[j];
+				--j;
+			}
+			order[j + 1] = o;
+		}
+		// min heap of perturbation sets, each a mask over positions in order
+		int capacity = 2 * limit + 1;
+		long[] sets = new long[capacity];
+		float[] scores = new float[capacity];
+		int size = 0;
+		sets[size] = 1L;
+		scores[size++] = margins[order[0]];
+		int count = 1;
+		while(count < limit && size > 0) {
+			long set = sets[0];
+			float score = scores[0];
+			// pop
+			--size;
+			long lastSet = sets[size];
+			float lastScore = scores[size];
+			int i = 0;
+			while(2 * i + 1 < size) {
+				int c = 2 * i + 1;
+				if(c + 1 < size && scores[c + 1] < scores[c])
+					++c;
+				if(lastScore <= scores[c])
+					break;
+				sets[i] = sets[c];
+				scores[i] = scores[c];
+				i = c;
+			}
+			sets[i] = lastSet;
+			scores[i] = lastScore;
+			// emit
+			int flip = 0;
+			for(long m = set; m != 0; m &= m - 1)
+				flip |= 1 << order[Long.numberOfTrailingZeros(m)];
+			out[count++] = code ^ flip;
+			// successors, shift the highest position up by one and expand by adding the next position
+			int hi = 63 - Long.numberOfLeadingZeros(set);
+			if(hi + 1 < n) {
+				float next = margins[order[hi + 1]];
+				size = push(sets, scores, size, (set & ~(1L << hi)) | (1L << (hi + 1)), score - margins[order[hi]] + next);
+				size = push(sets, scores, size, set | (1L << (hi + 1)), score + next);
+			}
+		}
+		return count;
+	}
+
+	private static int push(long[] sets, float[] scores, int size, long set, float score) {
+		if(size == sets.length)
+			return size;
+		int i = size++;
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(scores[parent] <= score)
+				break;
+			sets[i] = sets[parent];
+			scores[i] = scores[parent];
+			i = parent;
+		}
+		sets[i] = set;
+		scores[i] = score;
+		return size;
+	}
+
+	/**
+	 * Hash a batch of vectors.
+	 * @param vectors the vectors
+	 * @param codes receives the code of vectors[i] at codes[i]
+	 */
+	public void hash(FloatTensor[] vectors, int[] codes) {
+		for(int i = 0; i < vectors.length; i++)
+			codes[i] = hash(vectors[i]);
+	}
+
+	public int getNumberOfHashes() {
+		return numberOfHashes;
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * @return the numberOfHashes x dimensions projection matrix, row-major
+	 */
+	public FloatTensor getProjections() {
+		return projections;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s hashes=%d dimensions=%d", this.getClass().getName(), numberOfHashes, dimensions);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public int compareTo(ProjectionHash other) {
+		int c = Integer.compare(numberOfHashes, other.numberOfHashes);
+		if(c != 0)
+			return c;
+		c = Integer.compare(dimensions, other.dimensions);
+		if(c != 0)
+			return c;
+		// FloatTensor is a raw Comparable, hence the unchecked call
+		return projections.compareTo(other.projections);
+	}
+}
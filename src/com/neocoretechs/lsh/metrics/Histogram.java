@@ -0,0 +1,100 @@
+package com.neocoretechs.lsh.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free distribution of non-negative long values in power of two buckets, bucket b holding the values
+ * from 2^(b-1) to 2^b - 1 and bucket 0 the zeros.<p>
+ * Recording is a leading zero count and two {@link LongAdder} increments, cheap enough for every query and
+ * every probed bucket, and concurrent recorders update separate cells instead of contending on one word.
+ * Percentiles are resolved to the upper bound of their bucket, so are exact to within a factor of two.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class Histogram {
+	private static final int BUCKETS = Long.SIZE + 1;
+	private final String name;
+	private final String unit;
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+	/**
+	 * @param name what is measured
+	 * @param unit the unit of the values, for {@link #toString()}
+	 */
+	public Histogram(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+		for(int b = 0; b < BUCKETS; b++)
+			counts[b] = new LongAdder();
+	}
+
+	/**
+	 * @param value the value, negatives are recorded as 0
+	 */
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		counts[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	public long count() {
+		long n = 0;
+		for(LongAdder c : counts)
+			n += c.sum();
+		return n;
+	}
+
+	public long sum() {
+		return sum.sum();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public double mean() {
+		long n = count();
+		return n == 0 ? 0.0 : (double) sum() / n;
+	}
+
+	/**
+	 * @param p the percentile, 0 to 100
+	 * @return the upper bound of the bucket holding the percentile, no more than the maximum recorded
+	 */
+	public long percentile(double p) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for(int b = 0; b < BUCKETS; b++)
+			n += snapshot[b] = counts[b].sum();
+		if(n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(n * p / 100.0));
+		long seen = 0;
+		for(int b = 0; b < BUCKETS; b++) {
+			seen += snapshot[b];
+			if(seen >= rank)
+				return Math.min(b == 0 ? 0 : b == Long.SIZE ? Long.MAX_VALUE : (1L << b) - 1, max());
+		}
+		return max();
+	}
+
+	public void reset() {
+		for(LongAdder c : counts)
+			c.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d %s", name, count(), mean(), percentile(50), percentile(90), percentile(99), max(), unit);
+	}
+}
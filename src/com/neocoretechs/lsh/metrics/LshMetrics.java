@@ -0,0 +1,100 @@
+package com.neocoretechs.lsh.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide query metrics: a latency histogram per {@link Phase}, the distribution of probed bucket sizes and of
+ * distinct candidates per query, and query and bucket counters. Every query of an {@link com.neocoretechs.lsh.Index}
+ * or {@link com.neocoretechs.lsh.RelatrixLSH} records here while {@link #enabled} is set, at the cost of a few
+ * {@link System#nanoTime()} calls and {@link LongAdder} increments. {@link #report()} renders the current state
+ * and {@link #reset()} starts a new interval.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class LshMetrics {
+	// set false to skip all recording
+	public static volatile boolean enabled = true;
+	private static final Histogram[] PHASES = new Histogram[Phase.values().length];
+	private static final Histogram BUCKET_SIZES = new Histogram("bucket size", "ids");
+	private static final Histogram CANDIDATES = new Histogram("candidates per query", "ids");
+	private static final LongAdder QUERIES = new LongAdder();
+	private static final LongAdder EMPTY_BUCKETS = new LongAdder();
+	static {
+		for(Phase phase : Phase.values())
+			PHASES[phase.ordinal()] = new Histogram(phase.name().toLowerCase(), "ns");
+	}
+
+	private LshMetrics() {}
+
+	/**
+	 * @return the latency histogram of a phase, in nanoseconds
+	 */
+	public static Histogram phase(Phase phase) {
+		return PHASES[phase.ordinal()];
+	}
+
+	/**
+	 * @return the distribution of probed bucket sizes, empty probes included
+	 */
+	public static Histogram bucketSizes() {
+		return BUCKET_SIZES;
+	}
+
+	/**
+	 * @return the distribution of distinct candidates per query
+	 */
+	public static Histogram candidates() {
+		return CANDIDATES;
+	}
+
+	public static long queries() {
+		return QUERIES.sum();
+	}
+
+	public static long emptyBuckets() {
+		return EMPTY_BUCKETS.sum();
+	}
+
+	/**
+	 * Record one probed bucket.
+	 * @param size ids in the bucket, 0 if empty
+	 */
+	public static void bucket(int size) {
+		BUCKET_SIZES.record(size);
+		if(size == 0)
+			EMPTY_BUCKETS.increment();
+	}
+
+	/**
+	 * Record a finished query from its profile, each phase it went through and its candidate count.
+	 * @param profile the query's profile
+	 */
+	public static void record(QueryProfile profile) {
+		QUERIES.increment();
+		for(Phase phase : Phase.values())
+			if(profile.ran(phase))
+				PHASES[phase.ordinal()].record(profile.getNanos(phase));
+		CANDIDATES.record(profile.getCandidates());
+	}
+
+	public static void reset() {
+		for(Histogram h : PHASES)
+			h.reset();
+		BUCKET_SIZES.reset();
+		CANDIDATES.reset();
+		QUERIES.reset();
+		EMPTY_BUCKETS.reset();
+	}
+
+	/**
+	 * @return one line per histogram and counter
+	 */
+	public static String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("queries=").append(queries()).append(" empty buckets=").append(emptyBuckets()).append('\n');
+		for(Histogram h : PHASES)
+			sb.append(h).append('\n');
+		sb.append(BUCKET_SIZES).append('\n');
+		sb.append(CANDIDATES).append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,18 @@
+package com.neocoretechs.lsh.metrics;
+
+/**
+ * The stages of an LSH query, timed separately by {@link QueryProfile} and {@link LshMetrics}.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public enum Phase {
+	/** projecting the query and deriving its probe codes in every table */
+	HASH,
+	/** looking up the probed buckets, locally or in the store */
+	FETCH,
+	/** merging the bucket contents into distinct candidates */
+	DEDUPE,
+	/** computing the distance of every candidate and keeping the best in a bounded heap */
+	SCORE,
+	/** ordering the retained best */
+	SELECT
+}
@@ -0,0 +1,62 @@
+package com.neocoretechs.lsh.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for one LSH query, carrying its phase times and counts so slow queries can be found in a
+ * recording alongside GC and allocation. Disabled unless a recording enables it, in which case constructing and
+ * committing it costs almost nothing.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+@Name("com.neocoretechs.lsh.Query")
+@Label("LSH Query")
+@Category({"NeoCoreTechs", "LSH"})
+@Description("One nearest neighbor query with its phase breakdown")
+@StackTrace(false)
+public final class QueryEvent extends Event {
+	@Label("Hash")
+	@Timespan(Timespan.NANOSECONDS)
+	long hash;
+	@Label("Fetch")
+	@Timespan(Timespan.NANOSECONDS)
+	long fetch;
+	@Label("Dedupe")
+	@Timespan(Timespan.NANOSECONDS)
+	long dedupe;
+	@Label("Score")
+	@Timespan(Timespan.NANOSECONDS)
+	long score;
+	@Label("Select")
+	@Timespan(Timespan.NANOSECONDS)
+	long select;
+	@Label("Buckets")
+	int buckets;
+	@Label("Candidates")
+	int candidates;
+	@Label("Results")
+	int results;
+
+	/**
+	 * Fill the fields from a finished profile and commit if the event is enabled and over its threshold.
+	 * @param profile the query's profile
+	 */
+	public void commit(QueryProfile profile) {
+		if(!shouldCommit())
+			return;
+		hash = profile.getNanos(Phase.HASH);
+		fetch = profile.getNanos(Phase.FETCH);
+		dedupe = profile.getNanos(Phase.DEDUPE);
+		score = profile.getNanos(Phase.SCORE);
+		select = profile.getNanos(Phase.SELECT);
+		buckets = profile.getBuckets();
+		candidates = profile.getCandidates();
+		results = profile.getResults();
+		commit();
+	}
+}
@@ -0,0 +1,139 @@
+package com.neocoretechs.lsh.metrics;
+
+/**
+ * Where the time of one query went, phase by phase, and how many buckets and candidates it touched.<p>
+ * Opt in: pass a profile to {@link com.neocoretechs.lsh.Index#search(com.neocoretechs.wordembedding.FloatTensor, int, QueryProfile)}
+ * or {@link com.neocoretechs.lsh.RelatrixLSH#query(com.neocoretechs.wordembedding.FloatTensor, int, QueryProfile)} and read
+ * it back afterwards. A profile is reset at the start of each query it is passed to, and is not thread safe.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class QueryProfile {
+	private static final Phase[] PHASES = Phase.values();
+	private final long[] nanos = new long[PHASES.length];
+	// bit per phase that ran
+	private int ran;
+	private long last;
+	private int buckets;
+	private int emptyBuckets;
+	private long bucketEntries;
+	private int candidates;
+	private int scored;
+	private int results;
+
+	/**
+	 * Clear the profile and start the clock.
+	 */
+	public void start() {
+		for(int i = 0; i < nanos.length; i++)
+			nanos[i] = 0;
+		ran = 0;
+		buckets = 0;
+		emptyBuckets = 0;
+		bucketEntries = 0;
+		candidates = 0;
+		scored = 0;
+		results = 0;
+		last = System.nanoTime();
+	}
+
+	/**
+	 * Charge the time since the previous lap, or since {@link #start()}, to a phase.
+	 * @param phase the phase just finished
+	 */
+	public void lap(Phase phase) {
+		long now = System.nanoTime();
+		nanos[phase.ordinal()] += now - last;
+		ran |= 1 << phase.ordinal();
+		last = now;
+	}
+
+	/**
+	 * Record a probed bucket.
+	 * @param size the ids in the bucket, 0 if it was empty
+	 */
+	public void bucket(int size) {
+		++buckets;
+		if(size == 0)
+			++emptyBuckets;
+		bucketEntries += size;
+	}
+
+	public void setCandidates(int candidates) {
+		this.candidates = candidates;
+	}
+
+	public void setScored(int scored) {
+		this.scored = scored;
+	}
+
+	public void setResults(int results) {
+		this.results = results;
+	}
+
+	/**
+	 * @return nanoseconds spent in the phase
+	 */
+	public long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * @return true if the query went through the phase
+	 */
+	public boolean ran(Phase phase) {
+		return (ran & (1 << phase.ordinal())) != 0;
+	}
+
+	public long getTotalNanos() {
+		long total = 0;
+		for(long n : nanos)
+			total += n;
+		return total;
+	}
+
+	/**
+	 * @return buckets probed across all tables
+	 */
+	public int getBuckets() {
+		return buckets;
+	}
+
+	public int getEmptyBuckets() {
+		return emptyBuckets;
+	}
+
+	/**
+	 * @return ids read from the probed buckets, duplicates included
+	 */
+	public long getBucketEntries() {
+		return bucketEntries;
+	}
+
+	/**
+	 * @return distinct candidates gathered
+	 */
+	public int getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return candidates scored after any prefilter
+	 */
+	public int getScored() {
+		return scored;
+	}
+
+	public int getResults() {
+		return results;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("QueryProfile");
+		for(Phase phase : PHASES)
+			if(ran(phase))
+				sb.append(' ').append(phase.name().toLowerCase()).append('=').append(nanos[phase.ordinal()] / 1000.0).append("us");
+		return sb.append(String.format(" buckets=%d empty=%d entries=%d candidates=%d scored=%d results=%d",
+			buckets, emptyBuckets, bucketEntries, candidates, scored, results)).toString();
+	}
+}
@@ -0,0 +1,62 @@
+package com.neocoretechs.wordembedding;
+
+import java.lang.foreign.MemorySegment;
+
+import jdk.incubator.vector.*;
+
+/**
+ * bfloat16 tensor: the upper 16 bits of a float32, keeping the full float exponent range with 7 bits of mantissa.
+ * Conversion to float is a 16 bit left shift, so the vector kernels widen {@link FloatTensor#S_SPECIES_HALF} lanes to
+ * int, shift and reinterpret. Values are rounded to nearest even when stored.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class BF16FloatTensor extends HalfFloatTensor {
+	private static final long serialVersionUID = -1L;
+
+	public BF16FloatTensor() {}
+
+	/**
+	 * @param size number of elements
+	 * @param memorySegment size * 2 bytes of bfloat16 values
+	 */
+	public BF16FloatTensor(int size, MemorySegment memorySegment) {
+		super(size, memorySegment);
+	}
+
+	/**
+	 * Convert a tensor into a new heap backed bfloat16 tensor.
+	 * @param source the tensor to convert
+	 * @return the converted copy
+	 */
+	public static BF16FloatTensor of(FloatTensor source) {
+		return of(source, MemorySegment.ofArray(new byte[source.size() * BYTES]));
+	}
+
+	/**
+	 * Convert a tensor into caller supplied storage, such as a row of an {@link EmbeddingMatrix}.
+	 * @param source the tensor to convert
+	 * @param memorySegment receives source.size() values
+	 * @return the converted tensor backed by memorySegment
+	 */
+	public static BF16FloatTensor of(FloatTensor source, MemorySegment memorySegment) {
+		return convert(source, new BF16FloatTensor(source.size(), memorySegment));
+	}
+
+	@Override
+	float toFloat(short bits) {
+		return Float.intBitsToFloat(bits << 16);
+	}
+
+	@Override
+	short fromFloat(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		if(Float.isNaN(value))
+			return (short) ((bits >>> 16) | 0x40);
+		return (short) ((bits + 0x7FFF + ((bits >>> 16) & 1)) >>> 16);
+	}
+
+	@Override
+	FloatVector widen(ShortVector bits16) {
+		return ((IntVector) bits16.castShape(I_SPECIES, 0)).lanewise(VectorOperators.LSHL, 16).reinterpretAsFloats();
+	}
+}
@@ -0,0 +1,222 @@
+package com.neocoretechs.wordembedding;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Versioned binary embedding file, written once from the GloVe text and memory mapped on every run thereafter.<p>
+ * Layout, all values little-endian:
+ * <pre>
+ * offset 0   int   magic 'WEMB'
+ *        4   int   version
+ *        8   int   element type, 0 = float32, 1 = float16, 2 = bfloat16
+ *        12  int   dimension
+ *        16  int   rows
+ *        20  int   reserved
+ *        24  long  matrix offset, 64 byte aligned
+ *        32  long  word table offset
+ *        40  long  word data offset
+ *        48  long  file size
+ *        56  long  reserved
+ * matrix     rows * dimension elements, row-major, 4 or 2 bytes each
+ * word table rows + 1 ints, start of each word relative to word data, the last being the data length
+ * word data  UTF-8 bytes of each word back to back
+ * </pre>
+ * {@link #map(Path)} maps the file through {@link FileChannel#map(FileChannel.MapMode, long, long, Arena)} and
+ * exposes the matrix section directly as an {@link EmbeddingMatrix} without copying, so startup cost is
+ * essentially that of decoding the word table.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class EmbeddingFile {
+	public static final int MAGIC = 0x424D4557; // "WEMB" read little-endian
+	public static final int VERSION = 1;
+	public static final int TYPE_F32 = 0;
+	public static final int TYPE_F16 = 1;
+	public static final int TYPE_BF16 = 2;
+	public static final String EXTENSION = ".emb";
+	static final int HEADER_SIZE = 64;
+	static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+	private EmbeddingFile() {}
+
+	/**
+	 * Check the leading magic number of a file.
+	 * @param path the file
+	 * @return true if the file is in this binary format
+	 */
+	public static boolean isEmbeddingFile(Path path) {
+		if(!Files.isRegularFile(path))
+			return false;
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer bb = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			return fileChannel.read(bb, 0) == 4 && bb.getInt(0) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Write a matrix and its words to the binary format.
+	 * @param matrix the embeddings
+	 * @param path the destination, replaced if it exists
+	 * @throws IOException
+	 */
+	public static void write(EmbeddingMatrix matrix, Path path) throws IOException {
+		int rows = matrix.rows();
+		byte[][] encoded = new byte[rows][];
+		long wordBytes = 0;
+		for(int i = 0; i < rows; i++) {
+			String word = matrix.word(i);
+			encoded[i] = word == null ? new byte[0] : word.getBytes(StandardCharsets.UTF_8);
+			wordBytes += encoded[i].length;
+		}
+		if(wordBytes > Integer.MAX_VALUE)
+			throw new IOException("word table exceeds 2GB");
+		long matrixOffset = HEADER_SIZE;
+		long matrixBytes = (long) rows * matrix.dimension() * EmbeddingMatrix.elementBytes(matrix.type());
+		long tableOffset = matrixOffset + matrixBytes;
+		long dataOffset = tableOffset + (long) (rows + 1) * Integer.BYTES;
+		long fileSize = dataOffset + wordBytes;
+		Files.deleteIfExists(path);
+		try (Arena arena = Arena.ofConfined();
+			 FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MemorySegment segment = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize, arena);
+			segment.set(INT, 0, MAGIC);
+			segment.set(INT, 4, VERSION);
+			segment.set(INT, 8, matrix.type());
+			segment.set(INT, 12, matrix.dimension());
+			segment.set(INT, 16, rows);
+			segment.set(LONG, 24, matrixOffset);
+			segment.set(LONG, 32, tableOffset);
+			segment.set(LONG, 40, dataOffset);
+			segment.set(LONG, 48, fileSize);
+			if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+				MemorySegment.copy(matrix.segment(), 0, segment, matrixOffset, matrixBytes);
+			} else if(matrix.type() == TYPE_F32) {
+				MemorySegment.copy(matrix.segment(), ValueLayout.JAVA_FLOAT, 0, segment, ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN), matrixOffset, matrixBytes / Float.BYTES);
+			} else {
+				MemorySegment.copy(matrix.segment(), ValueLayout.JAVA_SHORT, 0, segment, ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN), matrixOffset, matrixBytes / Short.BYTES);
+			}
+			int wordOffset = 0;
+			long pos = dataOffset;
+			for(int i = 0; i < rows; i++) {
+				segment.set(INT, tableOffset + (long) i * Integer.BYTES, wordOffset);
+				MemorySegment.copy(encoded[i], 0, segment, ValueLayout.JAVA_BYTE, pos, encoded[i].length);
+				pos += encoded[i].length;
+				wordOffset += encoded[i].length;
+			}
+			segment.set(INT, tableOffset + (long) rows * Integer.BYTES, wordOffset);
+			segment.force();
+		}
+	}
+
+	/**
+	 * Memory map a binary embedding file. The matrix is a view of the mapped file and stays valid until the
+	 * returned matrix becomes unreachable.<p>
+	 * A writable file is mapped private, copy on write, so the matrix may be modified, for instance by
+	 * {@link EmbeddingMatrix#normalizeInPlace()} or an {@link com.neocoretechs.lsh.Index} built normalized, without
+	 * the changes ever reaching the file. Only the pages written are copied. A file without write permission is
+	 * mapped read only, {@link EmbeddingMatrix#isReadOnly()} is then true and modifying the matrix throws
+	 * {@link UnsupportedOperationException}.
+	 * @param path the file
+	 * @return the embeddings, backed by the mapping
+	 * @throws IOException if the file is not in this format, is a different version, or is truncated
+	 */
+	public static EmbeddingMatrix map(Path path) throws IOException {
+		if(ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+			throw new IOException("Memory mapped embeddings require a little-endian platform");
+		// a private mapping needs a channel open for writing, even though nothing is ever written back
+		boolean writable = Files.isWritable(path);
+		try (FileChannel fileChannel = writable ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = fileChannel.size();
+			if(size < HEADER_SIZE)
+				throw new IOException(path+" is too short to be an embedding file");
+			MemorySegment segment = fileChannel.map(writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY, 0, size, Arena.ofAuto());
+			if(segment.get(INT, 0) != MAGIC)
+				throw new IOException(path+" is not an embedding file");
+			int version = segment.get(INT, 4);
+			if(version != VERSION)
+				throw new IOException(path+" has unsupported version "+version);
+			int type = segment.get(INT, 8);
+			if(type != TYPE_F32 && type != TYPE_F16 && type != TYPE_BF16)
+				throw new IOException(path+" has unsupported element type "+type);
+			int dimension = segment.get(INT, 12);
+			int rows = segment.get(INT, 16);
+			long matrixOffset = segment.get(LONG, 24);
+			long tableOffset = segment.get(LONG, 32);
+			long dataOffset = segment.get(LONG, 40);
+			long fileSize = segment.get(LONG, 48);
+			long matrixBytes = (long) rows * dimension * EmbeddingMatrix.elementBytes(type);
+			if(fileSize != size || matrixOffset + matrixBytes > tableOffset || tableOffset + (long) (rows + 1) * Integer.BYTES > dataOffset)
+				throw new IOException(path+" is truncated or corrupt, header size "+fileSize+" actual "+size);
+			String[] words = new String[rows];
+			byte[] buf = new byte[256];
+			int start = segment.get(INT, tableOffset);
+			for(int i = 0; i < rows; i++) {
+				int end = segment.get(INT, tableOffset + (long) (i + 1) * Integer.BYTES);
+				int len = end - start;
+				if(len < 0 || dataOffset + end > size)
+					throw new IOException(path+" has a corrupt word table at row "+i);
+				if(len > buf.length)
+					buf = new byte[len];
+				MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, dataOffset + start, buf, 0, len);
+				words[i] = new String(buf, 0, len, StandardCharsets.UTF_8);
+				start = end;
+			}
+			return new EmbeddingMatrix(rows, dimension, type, segment.asSlice(matrixOffset, matrixBytes), words);
+		}
+	}
+
+	/**
+	 * @param name f32, f16 or bf16, case insensitive
+	 * @return the element type constant
+	 */
+	public static int parseType(String name) {
+		switch(name.toLowerCase()) {
+			case "f32":
+				return TYPE_F32;
+			case "f16":
+				return TYPE_F16;
+			case "bf16":
+				return TYPE_BF16;
+			default:
+				throw new IllegalArgumentException("unknown element type "+name+", expected f32, f16 or bf16");
+		}
+	}
+
+	/**
+	 * Convert a GloVe text file to the binary format.<p>
+	 * Command line: input text file, output binary file (default input name with {@value #EXTENSION}),
+	 * element type f32, f16 or bf16 (default f32)
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("usage: java com.neocoretechs.wordembedding.EmbeddingFile <glove text file> [output"+EXTENSION+"] [f32|f16|bf16]");
+			System.exit(1);
+		}
+		Path out = Paths.get(args.length > 1 ? args[1] : args[0] + EXTENSION);
+		// reports the parse time and MB/s
+		EmbeddingMatrix matrix = LoadWordEmbedding.loadTensors(args[0]);
+		if(args.length > 2)
+			matrix = matrix.convert(parseType(args[2]));
+		long tims = System.currentTimeMillis();
+		write(matrix, out);
+		System.out.println("Wrote "+out+" in "+(System.currentTimeMillis()-tims)+" ms.");
+		tims = System.currentTimeMillis();
+		matrix = map(out);
+		System.out.println("Mapped "+matrix+" in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+}
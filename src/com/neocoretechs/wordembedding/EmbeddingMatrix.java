@@ -0,0 +1,308 @@
+package com.neocoretechs.wordembedding;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A set of word embeddings held row-major in a single off-heap {@link MemorySegment}.<p>
+ * Each word is addressed by an int id, its row number. Rather than one array, segment and tensor
+ * object per word, the whole vocabulary is one contiguous block of rows * dimension floats, so a scan
+ * over it is sequential memory access and the garbage collector sees one object instead of hundreds
+ * of thousands. {@link #row(int)} hands out a lightweight tensor view over a row that satisfies the
+ * {@link FloatTensor} API without copying. Elements are float32 by default, or 16 bit {@link F16FloatTensor} or
+ * {@link BF16FloatTensor} values to halve the resident size, see {@link #convert(int)}.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class EmbeddingMatrix {
+	private final int rows;
+	private final int dimension;
+	// element type, one of the EmbeddingFile TYPE_ constants
+	private final int type;
+	private final MemorySegment memorySegment;
+	// the whole matrix as one tensor so row kernels can use offset based dot products
+	private final FloatTensor tensor;
+	private final String[] words;
+	private HashMap<String, Integer> wordIndex;
+	private boolean normalized;
+	// the L2 norm of each row as a float, handed to the row views so none recomputes it, or null if not known
+	private MemorySegment norms;
+
+	/**
+	 * Allocate a zeroed off-heap matrix.
+	 * @param rows number of vectors
+	 * @param dimension elements per vector
+	 */
+	public EmbeddingMatrix(int rows, int dimension) {
+		this(rows, dimension, EmbeddingFile.TYPE_F32);
+	}
+
+	/**
+	 * Allocate a zeroed off-heap matrix of the given element type.
+	 * @param rows number of vectors
+	 * @param dimension elements per vector
+	 * @param type {@link EmbeddingFile#TYPE_F32}, {@link EmbeddingFile#TYPE_F16} or {@link EmbeddingFile#TYPE_BF16}
+	 */
+	public EmbeddingMatrix(int rows, int dimension, int type) {
+		this(rows, dimension, type, Arena.ofAuto().allocate((long) rows * dimension * elementBytes(type), 64), new String[rows]);
+	}
+
+	/**
+	 * Wrap an existing segment of rows * dimension floats.
+	 * @param rows number of vectors
+	 * @param dimension elements per vector
+	 * @param memorySegment the row-major float data
+	 * @param words the word for each row, may contain nulls
+	 */
+	public EmbeddingMatrix(int rows, int dimension, MemorySegment memorySegment, String[] words) {
+		this(rows, dimension, EmbeddingFile.TYPE_F32, memorySegment, words);
+	}
+
+	/**
+	 * Wrap an existing segment of rows * dimension elements of the given type.
+	 * @param rows number of vectors
+	 * @param dimension elements per vector
+	 * @param type {@link EmbeddingFile#TYPE_F32}, {@link EmbeddingFile#TYPE_F16} or {@link EmbeddingFile#TYPE_BF16}
+	 * @param memorySegment the row-major data
+	 * @param words the word for each row, may contain nulls
+	 */
+	public EmbeddingMatrix(int rows, int dimension, int type, MemorySegment memorySegment, String[] words) {
+		if(memorySegment.byteSize() < (long) rows * dimension * elementBytes(type))
+			throw new IllegalArgumentException(String.format("segment of %d bytes too small for %d x %d", memorySegment.byteSize(), rows, dimension));
+		if(words.length != rows)
+			throw new IllegalArgumentException(String.format("rows=%d, words.len=%d", rows, words.length));
+		this.rows = rows;
+		this.dimension = dimension;
+		this.type = type;
+		this.memorySegment = memorySegment;
+		this.tensor = tensor(type, Math.multiplyExact(rows, dimension), memorySegment);
+		this.words = words;
+	}
+
+	/**
+	 * @param type an element type
+	 * @return bytes per element
+	 */
+	public static int elementBytes(int type) {
+		switch(type) {
+			case EmbeddingFile.TYPE_F32:
+				return Float.BYTES;
+			case EmbeddingFile.TYPE_F16:
+			case EmbeddingFile.TYPE_BF16:
+				return Short.BYTES;
+			default:
+				throw new IllegalArgumentException("unknown element type:"+type);
+		}
+	}
+
+	private static FloatTensor tensor(int type, int size, MemorySegment segment) {
+		switch(type) {
+			case EmbeddingFile.TYPE_F16:
+				return new F16FloatTensor(size, segment);
+			case EmbeddingFile.TYPE_BF16:
+				return new BF16FloatTensor(size, segment);
+			default:
+				return new F32FloatTensor(size, segment);
+		}
+	}
+
+	/**
+	 * Copy this matrix into a new one of another element type, rows converted in parallel. Words and the
+	 * normalized flag carry over.
+	 * @param type the target element type
+	 * @return the converted matrix, or this one if it is already of that type
+	 */
+	public EmbeddingMatrix convert(int type) {
+		if(type == this.type)
+			return this;
+		EmbeddingMatrix target = new EmbeddingMatrix(rows, dimension, type, Arena.ofAuto().allocate((long) rows * dimension * elementBytes(type), 64), words.clone());
+		Parallel.parallelFor(0, rows, i -> {
+			FloatTensor source = row(i);
+			FloatTensor row = target.row(i);
+			for(int j = 0; j < dimension; j++)
+				row.setFloat(j, source.getFloat(j));
+		});
+		target.normalized = normalized;
+		return target;
+	}
+
+	/**
+	 * @return the element type, one of the {@link EmbeddingFile} TYPE_ constants
+	 */
+	public int type() {
+		return type;
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public int dimension() {
+		return dimension;
+	}
+
+	public MemorySegment segment() {
+		return memorySegment;
+	}
+
+	/**
+	 * @return the entire matrix as a single tensor, row i starting at element i * dimension
+	 */
+	public FloatTensor tensor() {
+		return tensor;
+	}
+
+	/**
+	 * @param id the row
+	 * @return a tensor view over the row, sharing storage with this matrix
+	 */
+	public FloatTensor row(int id) {
+		FloatTensor row = tensor(type, dimension, memorySegment.asSlice(rowOffset(id), (long) dimension * elementBytes(type)));
+		if(normalized) {
+			row.normalized = true;
+			row.norm = 1f;
+		} else if(norms != null) {
+			row.norm = norms.getAtIndex(ValueLayout.JAVA_FLOAT, id);
+		}
+		return row;
+	}
+
+	/**
+	 * A read only list view of the rows, each element created on access by {@link #row(int)}.
+	 * @return the rows as a list of tensors
+	 */
+	public List<FloatTensor> asList() {
+		return new AbstractList<FloatTensor>() {
+			@Override
+			public FloatTensor get(int index) {
+				return row(index);
+			}
+			@Override
+			public int size() {
+				return rows;
+			}
+		};
+	}
+
+	/**
+	 * @return true if every row is known to be of unit length
+	 */
+	public boolean isNormalized() {
+		return normalized;
+	}
+
+	/**
+	 * Mark every row as unit length, so row views carry the normalized flag.
+	 * @param normalized true if the rows have been normalized
+	 */
+	public void setNormalized(boolean normalized) {
+		this.normalized = normalized;
+	}
+
+	/**
+	 * Supply the L2 norm of every row, as kept by an index file, so the views handed out by {@link #row(int)} carry
+	 * it and cosine scoring of a row is one dot product rather than two. The norms must match the rows, they are
+	 * dropped if the matrix is normalized.
+	 * @param norms rows float values, row i at index i, or null to compute norms on use
+	 */
+	public void setNorms(MemorySegment norms) {
+		if(norms != null && norms.byteSize() < (long) rows * Float.BYTES)
+			throw new IllegalArgumentException(String.format("norms of %d bytes too small for %d rows", norms.byteSize(), rows));
+		this.norms = norms;
+	}
+
+	/**
+	 * @return true if the rows cannot be modified, as when backed by a read only file mapping
+	 */
+	public boolean isReadOnly() {
+		return memorySegment.isReadOnly();
+	}
+
+	/**
+	 * Scale every row to unit length in place, spread across cores.
+	 * @throws UnsupportedOperationException if the matrix is {@link #isReadOnly()}
+	 */
+	public void normalizeInPlace() {
+		if(normalized)
+			return;
+		if(isReadOnly())
+			throw new UnsupportedOperationException("cannot normalize a read only embedding matrix, normalize before writing the file or map a writable copy");
+		Parallel.parallelFor(0, rows, i -> row(i).normalizeInPlace());
+		normalized = true;
+		norms = null;
+	}
+
+	/**
+	 * Dot product of a row with another tensor without creating a row view.
+	 * @param id the row
+	 * @param that the other tensor, at least dimension elements
+	 * @return the dot product
+	 */
+	public float dot(int id, FloatTensor that) {
+		return tensor.dot(id * dimension, that, 0, dimension);
+	}
+
+	public float get(int id, int index) {
+		rowOffset(id);
+		return tensor.getFloat(id * dimension + index);
+	}
+
+	public void set(int id, int index, float value) {
+		rowOffset(id);
+		tensor.setFloat(id * dimension + index, value);
+	}
+
+	/**
+	 * Copy a vector into a row.
+	 * @param id the row
+	 * @param values dimension floats
+	 */
+	public void setRow(int id, float[] values) {
+		if(type == EmbeddingFile.TYPE_F32) {
+			MemorySegment.copy(values, 0, memorySegment, ValueLayout.JAVA_FLOAT, rowOffset(id), dimension);
+		} else {
+			FloatTensor row = row(id);
+			for(int j = 0; j < dimension; j++)
+				row.setFloat(j, values[j]);
+		}
+	}
+
+	public String word(int id) {
+		return words[id];
+	}
+
+	public void setWord(int id, String word) {
+		words[id] = word;
+		wordIndex = null;
+	}
+
+	/**
+	 * Look up the id of a word, building the reverse map on first use.
+	 * @param word the word
+	 * @return the row id or -1 if not present
+	 */
+	public synchronized int indexOf(String word) {
+		if(wordIndex == null) {
+			wordIndex = new HashMap<String, Integer>(rows * 2);
+			for(int i = 0; i < rows; i++)
+				if(words[i] != null)
+					wordIndex.putIfAbsent(words[i], i);
+		}
+		Integer id = wordIndex.get(word);
+		return id == null ? -1 : id;
+	}
+
+	private long rowOffset(int id) {
+		if(id < 0 || id >= rows)
+			throw new IndexOutOfBoundsException("row "+id+" of "+rows);
+		return (long) id * dimension * elementBytes(type);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s rows=%d dimension=%d type=%d bytes=%d", this.getClass().getName(), rows, dimension, type, memorySegment.byteSize());
+	}
+}
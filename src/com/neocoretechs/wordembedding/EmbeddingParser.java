@@ -0,0 +1,271 @@
+package com.neocoretechs.wordembedding;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming parallel parser for GloVe and word2vec text embedding files.<p>
+ * The file is memory mapped and cut into byte ranges aligned on newlines. A first parallel pass counts the
+ * lines in each range so every range knows the row its first line lands on; the matrix is then allocated
+ * off-heap at its final size and a second parallel pass tokenizes each range at the byte level, parsing
+ * floats directly from the mapped bytes into the matrix rows. No line Strings, token arrays or intermediate
+ * lists are created, so the heap only ever holds the words themselves.<p>
+ * The word is taken to be everything before the last dimension tokens of a line, which accommodates the
+ * handful of GloVe 840B entries whose token contains spaces. A leading word2vec "count dimension" header
+ * line is recognized and skipped.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class EmbeddingParser {
+	private static boolean DEBUG = false;
+	private static final long MIN_CHUNK = 1L << 20;
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1.0;
+		for(int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10.0;
+	}
+
+	private EmbeddingParser() {}
+
+	public static EmbeddingMatrix parse(String path) throws IOException {
+		return parse(FileSystems.getDefault().getPath(path));
+	}
+
+	/**
+	 * Parse a text embedding file on all cores.
+	 * @param path the file
+	 * @return the embeddings in an off-heap matrix
+	 * @throws IOException on read failure or a malformed line
+	 */
+	public static EmbeddingMatrix parse(Path path) throws IOException {
+		long tims = System.currentTimeMillis();
+		try (Arena arena = Arena.ofShared();
+			 FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = fileChannel.size();
+			MemorySegment data = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+			// dimension from the first line, skipping a word2vec header if there is one
+			long start = 0;
+			long firstEnd = lineEnd(data, 0, size);
+			int tokens = countTokens(data, 0, firstEnd);
+			if(tokens == 2 && isInteger(data, 0, firstEnd)) {
+				start = firstEnd + 1;
+				firstEnd = lineEnd(data, start, size);
+				tokens = countTokens(data, start, firstEnd);
+			}
+			final int dimension = tokens - 1;
+			if(dimension < 1)
+				throw new IOException(path+" does not start with an embedding line");
+			// newline aligned chunk boundaries
+			int nChunks = (int) Math.max(1, Math.min((size - start) / MIN_CHUNK, Runtime.getRuntime().availableProcessors() * 4L));
+			long[] bounds = new long[nChunks + 1];
+			bounds[0] = start;
+			bounds[nChunks] = size;
+			for(int i = 1; i < nChunks; i++) {
+				long b = Math.max(bounds[i - 1], start + (size - start) * i / nChunks);
+				bounds[i] = b == start ? b : Math.min(size, lineEnd(data, b - 1, size) + 1);
+			}
+			// pass 1, lines per chunk
+			int[] lines = new int[nChunks];
+			Parallel.parallelFor(0, nChunks, c -> lines[c] = countLines(data, bounds[c], bounds[c + 1]));
+			int[] firstRow = new int[nChunks];
+			long rows = 0;
+			for(int c = 0; c < nChunks; c++) {
+				firstRow[c] = (int) rows;
+				rows += lines[c];
+			}
+			if(rows > Integer.MAX_VALUE)
+				throw new IOException(path+" has too many rows: "+rows);
+			EmbeddingMatrix matrix = new EmbeddingMatrix((int) rows, dimension);
+			// pass 2, parse straight into the matrix
+			try {
+				Parallel.parallelFor(0, nChunks, c -> parseChunk(path, data, bounds[c], bounds[c + 1], firstRow[c], dimension, matrix));
+			} catch(UncheckedIOException e) {
+				throw e.getCause();
+			}
+			long elapsed = Math.max(1, System.currentTimeMillis() - tims);
+			if(DEBUG)
+				System.out.printf("Parsed %d vectors of %d from %d bytes in %d ms, %.1f MB/s%n", rows, dimension, size, elapsed, throughput(size, elapsed));
+			return matrix;
+		}
+	}
+
+	/**
+	 * Parse rate for a loader's timing report.
+	 * @param bytes bytes of text parsed, the size of the file
+	 * @param millis elapsed milliseconds
+	 * @return megabytes, 2^20 bytes, per second
+	 */
+	public static double throughput(long bytes, long millis) {
+		return (bytes / 1048576.0) / (Math.max(1, millis) / 1000.0);
+	}
+
+	private static void parseChunk(Path path, MemorySegment data, long from, long to, int row, int dimension, EmbeddingMatrix matrix) {
+		MemorySegment out = matrix.segment();
+		byte[] wordBuf = new byte[64];
+		long pos = from;
+		while(pos < to) {
+			long end = lineEnd(data, pos, to);
+			long lineEnd = trimEnd(data, pos, end);
+			if(lineEnd > pos) {
+				// find the start of the first of the last 'dimension' tokens, scanning back from the end of line
+				long p = lineEnd;
+				for(int t = 0; t < dimension; t++) {
+					while(p > pos && isSpace(data.get(ValueLayout.JAVA_BYTE, p - 1)))
+						--p;
+					while(p > pos && !isSpace(data.get(ValueLayout.JAVA_BYTE, p - 1)))
+						--p;
+				}
+				long wordEnd = p;
+				while(wordEnd > pos && isSpace(data.get(ValueLayout.JAVA_BYTE, wordEnd - 1)))
+					--wordEnd;
+				if(wordEnd <= pos)
+					throw new UncheckedIOException(new IOException(path+" malformed line at byte "+pos+", expected a word and "+dimension+" values"));
+				int wordLen = (int) (wordEnd - pos);
+				if(wordLen > wordBuf.length)
+					wordBuf = new byte[wordLen];
+				MemorySegment.copy(data, ValueLayout.JAVA_BYTE, pos, wordBuf, 0, wordLen);
+				matrix.setWord(row, new String(wordBuf, 0, wordLen, StandardCharsets.UTF_8));
+				long rowOffset = (long) row * dimension * Float.BYTES;
+				for(int i = 0; i < dimension; i++) {
+					while(isSpace(data.get(ValueLayout.JAVA_BYTE, p)))
+						++p;
+					long tokenEnd = p;
+					while(tokenEnd < lineEnd && !isSpace(data.get(ValueLayout.JAVA_BYTE, tokenEnd)))
+						++tokenEnd;
+					out.set(ValueLayout.JAVA_FLOAT, rowOffset + (long) i * Float.BYTES, parseFloat(data, p, tokenEnd));
+					p = tokenEnd;
+				}
+				++row;
+			}
+			pos = end + 1;
+		}
+	}
+
+	/**
+	 * Parse a decimal float from bytes. Up to 18 significant digits and exponents that keep the scale within
+	 * the exactly representable powers of ten are handled inline; anything else, including nan and inf,
+	 * falls back to {@link Double#parseDouble(String)}.
+	 */
+	static float parseFloat(MemorySegment data, long from, long to) {
+		long p = from;
+		boolean negative = false;
+		byte b = data.get(ValueLayout.JAVA_BYTE, p);
+		if(b == '-' || b == '+') {
+			negative = b == '-';
+			++p;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean any = false;
+		while(p < to && (b = data.get(ValueLayout.JAVA_BYTE, p)) >= '0' && b <= '9') {
+			if(digits < 18) {
+				mantissa = mantissa * 10 + (b - '0');
+				if(mantissa != 0)
+					++digits;
+			} else
+				++scale;
+			any = true;
+			++p;
+		}
+		if(p < to && data.get(ValueLayout.JAVA_BYTE, p) == '.') {
+			++p;
+			while(p < to && (b = data.get(ValueLayout.JAVA_BYTE, p)) >= '0' && b <= '9') {
+				if(digits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if(mantissa != 0)
+						++digits;
+					--scale;
+				}
+				any = true;
+				++p;
+			}
+		}
+		if(any && p < to && ((b = data.get(ValueLayout.JAVA_BYTE, p)) == 'e' || b == 'E')) {
+			++p;
+			boolean negExp = false;
+			if(p < to && ((b = data.get(ValueLayout.JAVA_BYTE, p)) == '-' || b == '+')) {
+				negExp = b == '-';
+				++p;
+			}
+			int exp = 0;
+			boolean expDigits = false;
+			while(p < to && (b = data.get(ValueLayout.JAVA_BYTE, p)) >= '0' && b <= '9') {
+				exp = Math.min(exp * 10 + (b - '0'), 10000);
+				expDigits = true;
+				++p;
+			}
+			if(!expDigits)
+				return slowParse(data, from, to);
+			scale += negExp ? -exp : exp;
+		}
+		if(!any || p != to || scale < -22 || scale > 22)
+			return slowParse(data, from, to);
+		double value = scale < 0 ? mantissa / POW10[-scale] : mantissa * POW10[scale];
+		return (float) (negative ? -value : value);
+	}
+
+	private static float slowParse(MemorySegment data, long from, long to) {
+		byte[] token = new byte[(int) (to - from)];
+		MemorySegment.copy(data, ValueLayout.JAVA_BYTE, from, token, 0, token.length);
+		return Float.parseFloat(new String(token, StandardCharsets.US_ASCII));
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static long lineEnd(MemorySegment data, long from, long limit) {
+		long p = from;
+		while(p < limit && data.get(ValueLayout.JAVA_BYTE, p) != '\n')
+			++p;
+		return p;
+	}
+
+	private static long trimEnd(MemorySegment data, long from, long end) {
+		while(end > from && isSpace(data.get(ValueLayout.JAVA_BYTE, end - 1)))
+			--end;
+		return end;
+	}
+
+	private static int countLines(MemorySegment data, long from, long to) {
+		int n = 0;
+		long pos = from;
+		while(pos < to) {
+			long end = lineEnd(data, pos, to);
+			if(trimEnd(data, pos, end) > pos)
+				++n;
+			pos = end + 1;
+		}
+		return n;
+	}
+
+	private static int countTokens(MemorySegment data, long from, long to) {
+		int n = 0;
+		boolean inToken = false;
+		for(long p = from; p < to; p++) {
+			boolean space = isSpace(data.get(ValueLayout.JAVA_BYTE, p));
+			if(!space && !inToken)
+				++n;
+			inToken = !space;
+		}
+		return n;
+	}
+
+	private static boolean isInteger(MemorySegment data, long from, long to) {
+		for(long p = from; p < to; p++) {
+			byte b = data.get(ValueLayout.JAVA_BYTE, p);
+			if(!isSpace(b) && (b < '0' || b > '9'))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,69 @@
+package com.neocoretechs.wordembedding;
+
+import java.lang.foreign.MemorySegment;
+
+import jdk.incubator.vector.*;
+
+/**
+ * IEEE 754 half precision (binary16) tensor, 10 bits of mantissa and a range of +-65504, ample for embeddings.<p>
+ * The vector kernels load {@link FloatTensor#S_SPECIES_HALF} lanes, widen them to int and rebuild the float bits
+ * with shifts and masks, so the conversion costs a handful of lane operations per load. The vector conversion treats
+ * half precision subnormals as zero and does not handle infinities or NaN, the scalar path via
+ * {@link Float#float16ToFloat(short)} is exact.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class F16FloatTensor extends HalfFloatTensor {
+	private static final long serialVersionUID = -1L;
+
+	public F16FloatTensor() {}
+
+	/**
+	 * @param size number of elements
+	 * @param memorySegment size * 2 bytes of binary16 values
+	 */
+	public F16FloatTensor(int size, MemorySegment memorySegment) {
+		super(size, memorySegment);
+	}
+
+	/**
+	 * Convert a tensor into a new heap backed half precision tensor.
+	 * @param source the tensor to convert
+	 * @return the converted copy
+	 */
+	public static F16FloatTensor of(FloatTensor source) {
+		return of(source, MemorySegment.ofArray(new byte[source.size() * BYTES]));
+	}
+
+	/**
+	 * Convert a tensor into caller supplied storage, such as a row of an {@link EmbeddingMatrix}.
+	 * @param source the tensor to convert
+	 * @param memorySegment receives source.size() values
+	 * @return the converted tensor backed by memorySegment
+	 */
+	public static F16FloatTensor of(FloatTensor source, MemorySegment memorySegment) {
+		return convert(source, new F16FloatTensor(source.size(), memorySegment));
+	}
+
+	@Override
+	float toFloat(short bits) {
+		return Float.float16ToFloat(bits);
+	}
+
+	@Override
+	short fromFloat(float value) {
+		return Float.floatToFloat16(value);
+	}
+
+	/**
+	 * Rebuild float bits from binary16 bits: sign moved to bit 31, exponent rebiased from 15 to 127 and the
+	 * exponent and mantissa shifted up 13 bits, lanes with a zero exponent flushed to signed zero.
+	 */
+	@Override
+	FloatVector widen(ShortVector bits16) {
+		IntVector bits32 = (IntVector) bits16.castShape(I_SPECIES, 0);
+		IntVector nonZeroExponent = bits32.and(0x7C00).neg().lanewise(VectorOperators.ASHR, 31);
+		bits32 = bits32.and(0x8000).lanewise(VectorOperators.LSHL, 16)
+			.or(bits32.and(0x7FFF).add(0x1C000).lanewise(VectorOperators.LSHL, 13).and(nonZeroExponent));
+		return bits32.reinterpretAsFloats();
+	}
+}
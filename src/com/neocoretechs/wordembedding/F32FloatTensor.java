@@ -4,6 +4,7 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.nio.ByteOrder;
 
 import jdk.incubator.vector.*;
 import java.lang.foreign.Arena;
@@ -28,53 +29,289 @@ public final class F32FloatTensor extends FloatTensor implements Externalizable,
 		return size;
 	}
 
+	/**
+	 * @return the backing segment, size * 4 bytes of native order floats
+	 */
+	public MemorySegment getSegment() {
+		return memorySegment;
+	}
+
 	@Override
 	public float getFloat(int index) {
 		assert 0 <= index && index < size;
-		return readFloat(memorySegment, index * 4);
+		return readFloat(memorySegment, (long) index * Float.BYTES);
 	}
 
 	@Override
 	public void setFloat(int index, float value) {
-		throw new UnsupportedOperationException("setFloat");	
+		assert 0 <= index && index < size;
+		memorySegment.set(ValueLayout.JAVA_FLOAT, (long) index * Float.BYTES, value);
+		norm = Float.NaN;
+		normalized = false;
 	}
 
 	@Override
 	public FloatVector getFloatVector(VectorSpecies<Float> species, int offset) {
-		 throw new UnsupportedOperationException("getFloatVector");
+		if(!USE_VECTOR_API)
+			throw new UnsupportedOperationException("getFloatVector");
+		return FloatVector.fromMemorySegment(species, memorySegment, (long) offset * Float.BYTES, ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+		if(that instanceof F32FloatTensor) {
+			if(USE_VECTOR_API)
+				return vectorDot(this, thisOffset, (F32FloatTensor) that, thatOffset, size);
+			return scalarDot(this, thisOffset, (F32FloatTensor) that, thatOffset, size);
+		}
+		if(that instanceof Q8FloatTensor || that instanceof HalfFloatTensor)
+			return that.dot(thatOffset, this, thisOffset, size);
+		return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+	}
+
+	/**
+	 * Scalar dot product reading both operands straight from their segments, used when the Vector API is disabled
+	 * via -Dllama.VectorBitSize=0 and for the tail of {@link #vectorDot}.
+	 */
+	static float scalarDot(F32FloatTensor thiz, int thisOffset, F32FloatTensor that, int thatOffset, int size) {
+		float result = 0f;
+		for(int j = 0; j < size; j++) {
+			result += readFloat(thiz.memorySegment, (long)(thisOffset + j) * Float.BYTES) * readFloat(that.memorySegment, (long)(thatOffset + j) * Float.BYTES);
+		}
+		return result;
+	}
+
+	/**
+	 * SIMD dot product over {@link FloatTensor#F_SPECIES} lanes, the species width being selected at startup from
+	 * llama.VectorBitSize or the preferred shape of the platform. Elements past the last full vector are finished
+	 * with the scalar loop.
+	 */
+	static float vectorDot(F32FloatTensor thiz, int thisOffset, F32FloatTensor that, int thatOffset, int size) {
+		FloatVector val = FloatVector.zero(F_SPECIES);
+		int upperBound = F_SPECIES.loopBound(size);
+		for(int j = 0; j < upperBound; j += F_SPECIES.length()) {
+			FloatVector a = thiz.getFloatVector(F_SPECIES, thisOffset + j);
+			FloatVector b = that.getFloatVector(F_SPECIES, thatOffset + j);
+			val = a.fma(b, val);
+		}
+		float result = val.reduceLanes(VectorOperators.ADD);
+		if(upperBound < size)
+			result += scalarDot(thiz, thisOffset + upperBound, that, thatOffset + upperBound, size - upperBound);
+		return result;
 	}
 
 
+	@Override
+	public float cosine(int thisOffset, FloatTensor that, int thatOffset, int size) {
+		if(USE_VECTOR_API && that instanceof F32FloatTensor)
+			return vectorCosine(this, thisOffset, (F32FloatTensor) that, thatOffset, size);
+		if(that instanceof Q8FloatTensor || that instanceof HalfFloatTensor)
+			return that.cosine(thatOffset, this, thisOffset, size);
+		return super.cosine(thisOffset, that, thatOffset, size);
+	}
+
+	/**
+	 * Single pass cosine: dot, |a|^2 and |b|^2 kept in three lane accumulators so each operand is loaded once.
+	 */
+	static float vectorCosine(F32FloatTensor thiz, int thisOffset, F32FloatTensor that, int thatOffset, int size) {
+		FloatVector dot = FloatVector.zero(F_SPECIES);
+		FloatVector aa = FloatVector.zero(F_SPECIES);
+		FloatVector bb = FloatVector.zero(F_SPECIES);
+		int upperBound = F_SPECIES.loopBound(size);
+		for(int j = 0; j < upperBound; j += F_SPECIES.length()) {
+			FloatVector a = thiz.getFloatVector(F_SPECIES, thisOffset + j);
+			FloatVector b = that.getFloatVector(F_SPECIES, thatOffset + j);
+			dot = a.fma(b, dot);
+			aa = a.fma(a, aa);
+			bb = b.fma(b, bb);
+		}
+		float d = dot.reduceLanes(VectorOperators.ADD);
+		float na = aa.reduceLanes(VectorOperators.ADD);
+		float nb = bb.reduceLanes(VectorOperators.ADD);
+		for(int j = upperBound; j < size; j++) {
+			float a = readFloat(thiz.memorySegment, (long)(thisOffset + j) * Float.BYTES);
+			float b = readFloat(that.memorySegment, (long)(thatOffset + j) * Float.BYTES);
+			d += a * b;
+			na += a * a;
+			nb += b * b;
+		}
+		return cosine(d, na, nb);
+	}
+
+	@Override
+	public void matvec(int thisOffset, FloatTensor that, float[] out, int rows, int cols) {
+		if(!USE_VECTOR_API || !(that instanceof F32FloatTensor)) {
+			super.matvec(thisOffset, that, out, rows, cols);
+			return;
+		}
+		F32FloatTensor x = (F32FloatTensor) that;
+		int r = 0;
+		for(; r + 4 <= rows; r += 4)
+			vectorDot4(this, thisOffset + r * cols, x, cols, out, r);
+		for(; r < rows; r++)
+			out[r] = vectorDot(this, thisOffset + r * cols, x, 0, cols);
+	}
+
+	@Override
+	public int signBits(int thisOffset, FloatTensor that, int rows, int cols) {
+		if(!USE_VECTOR_API || !(that instanceof F32FloatTensor))
+			return super.signBits(thisOffset, that, rows, cols);
+		assert rows <= Integer.SIZE;
+		F32FloatTensor x = (F32FloatTensor) that;
+		int bits = 0;
+		int upperBound = F_SPECIES.loopBound(cols);
+		int r = 0;
+		// four rows per pass so each lane of the vector is loaded once for four products
+		for(; r + 4 <= rows; r += 4) {
+			int o0 = thisOffset + r * cols, o1 = o0 + cols, o2 = o1 + cols, o3 = o2 + cols;
+			FloatVector s0 = FloatVector.zero(F_SPECIES), s1 = s0, s2 = s0, s3 = s0;
+			for(int j = 0; j < upperBound; j += F_SPECIES.length()) {
+				FloatVector xv = x.getFloatVector(F_SPECIES, j);
+				s0 = getFloatVector(F_SPECIES, o0 + j).fma(xv, s0);
+				s1 = getFloatVector(F_SPECIES, o1 + j).fma(xv, s1);
+				s2 = getFloatVector(F_SPECIES, o2 + j).fma(xv, s2);
+				s3 = getFloatVector(F_SPECIES, o3 + j).fma(xv, s3);
+			}
+			float d0 = s0.reduceLanes(VectorOperators.ADD), d1 = s1.reduceLanes(VectorOperators.ADD);
+			float d2 = s2.reduceLanes(VectorOperators.ADD), d3 = s3.reduceLanes(VectorOperators.ADD);
+			if(upperBound < cols) {
+				int n = cols - upperBound;
+				d0 += scalarDot(this, o0 + upperBound, x, upperBound, n);
+				d1 += scalarDot(this, o1 + upperBound, x, upperBound, n);
+				d2 += scalarDot(this, o2 + upperBound, x, upperBound, n);
+				d3 += scalarDot(this, o3 + upperBound, x, upperBound, n);
+			}
+			if(d0 > 0) bits |= 1 << r;
+			if(d1 > 0) bits |= 1 << (r + 1);
+			if(d2 > 0) bits |= 1 << (r + 2);
+			if(d3 > 0) bits |= 1 << (r + 3);
+		}
+		for(; r < rows; r++)
+			if(vectorDot(this, thisOffset + r * cols, x, 0, cols) > 0)
+				bits |= 1 << r;
+		return bits;
+	}
+
+	/**
+	 * Four consecutive rows against one vector, results to out[outIndex .. outIndex + 3].
+	 */
+	static void vectorDot4(F32FloatTensor thiz, int thisOffset, F32FloatTensor x, int cols, float[] out, int outIndex) {
+		int upperBound = F_SPECIES.loopBound(cols);
+		int o0 = thisOffset, o1 = o0 + cols, o2 = o1 + cols, o3 = o2 + cols;
+		FloatVector s0 = FloatVector.zero(F_SPECIES), s1 = s0, s2 = s0, s3 = s0;
+		for(int j = 0; j < upperBound; j += F_SPECIES.length()) {
+			FloatVector xv = x.getFloatVector(F_SPECIES, j);
+			s0 = thiz.getFloatVector(F_SPECIES, o0 + j).fma(xv, s0);
+			s1 = thiz.getFloatVector(F_SPECIES, o1 + j).fma(xv, s1);
+			s2 = thiz.getFloatVector(F_SPECIES, o2 + j).fma(xv, s2);
+			s3 = thiz.getFloatVector(F_SPECIES, o3 + j).fma(xv, s3);
+		}
+		out[outIndex] = s0.reduceLanes(VectorOperators.ADD);
+		out[outIndex + 1] = s1.reduceLanes(VectorOperators.ADD);
+		out[outIndex + 2] = s2.reduceLanes(VectorOperators.ADD);
+		out[outIndex + 3] = s3.reduceLanes(VectorOperators.ADD);
+		if(upperBound < cols) {
+			int n = cols - upperBound;
+			out[outIndex] += scalarDot(thiz, o0 + upperBound, x, upperBound, n);
+			out[outIndex + 1] += scalarDot(thiz, o1 + upperBound, x, upperBound, n);
+			out[outIndex + 2] += scalarDot(thiz, o2 + upperBound, x, upperBound, n);
+			out[outIndex + 3] += scalarDot(thiz, o3 + upperBound, x, upperBound, n);
+		}
+	}
+
+	/**
+	 * Serialized form: the int element count followed by the elements as little-endian float32 in one block.
+	 * The payload is staged through a per-thread buffer and written with a single call.
+	 */
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException {
+		int bytes = size * Float.BYTES;
+		byte[] buf = Codec.buffer(bytes);
+		MemorySegment.copy(memorySegment, ValueLayout.JAVA_FLOAT, 0, MemorySegment.ofArray(buf), Codec.LE_FLOAT, 0, size);
 		out.writeInt(size);
-		out.writeLong(memorySegment.byteSize());
-		out.write(memorySegment.toArray(ValueLayout.JAVA_BYTE));
+		out.write(buf, 0, bytes);
 	}
 
+	/**
+	 * Read the form written by {@link #writeExternal(ObjectOutput)} with one readFully and one bulk copy into a
+	 * 64 byte aligned off-heap segment of this tensor's own, released when the tensor is unreachable.
+	 */
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		size = in.readInt();
-		long bs = in.readLong();
-		memorySegment = Arena.ofAuto().allocate(bs, 1);
-		for(int i = 0; i < bs; i++)
-			memorySegment.set(ValueLayout.JAVA_BYTE, i, (byte)(in.read() & 0xFF));
+		if(size < 0)
+			throw new IOException("negative tensor size:"+size);
+		int bytes = size * Float.BYTES;
+		byte[] buf = Codec.buffer(bytes);
+		in.readFully(buf, 0, bytes);
+		memorySegment = Arena.ofAuto().allocate(bytes, 64);
+		MemorySegment.copy(MemorySegment.ofArray(buf), Codec.LE_FLOAT, 0, memorySegment, ValueLayout.JAVA_FLOAT, 0, size);
+		norm = Float.NaN;
+		normalized = false;
 	}
 
+	/**
+	 * Lexicographic order of the raw bytes, as signed bytes, a shorter tensor ordering before any it is a prefix of.
+	 * The first differing byte is located with {@link MemorySegment#mismatch(MemorySegment)}.
+	 */
 	@Override
 	public int compareTo(Object o) {
-		for(int i = 0; i < memorySegment.byteSize(); i++) {
-			byte b;
-			if(i >= ((F32FloatTensor)o).memorySegment.byteSize())
-				return 1;
-			else
-				b = ((F32FloatTensor)o).memorySegment.get(ValueLayout.JAVA_BYTE, i);
-			if(memorySegment.get(ValueLayout.JAVA_BYTE,i) > b)
-				return 1;
-			if(memorySegment.get(ValueLayout.JAVA_BYTE,i) < b)
-				return -1;
+		MemorySegment other = ((F32FloatTensor)o).memorySegment;
+		long i = memorySegment.mismatch(other);
+		if(i == -1)
+			return 0;
+		if(i == memorySegment.byteSize())
+			return -1;
+		if(i == other.byteSize())
+			return 1;
+		return Byte.compare(memorySegment.get(ValueLayout.JAVA_BYTE, i), other.get(ValueLayout.JAVA_BYTE, i));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o)
+			return true;
+		if(!(o instanceof F32FloatTensor))
+			return false;
+		F32FloatTensor other = (F32FloatTensor)o;
+		return size == other.size && memorySegment.mismatch(other.memorySegment) == -1;
+	}
+
+	/**
+	 * Content hash over the bit patterns of the elements, consistent with {@link #equals(Object)}.
+	 * Each vector lane accumulates a polynomial hash of its own elements and the lanes are folded at the end,
+	 * so the value depends on the vector width and is not stable across platforms.
+	 */
+	@Override
+	public int hashCode() {
+		int h = 1;
+		int j = 0;
+		if(USE_VECTOR_API) {
+			int upperBound = I_SPECIES.loopBound(size);
+			IntVector acc = IntVector.zero(I_SPECIES);
+			for(; j < upperBound; j += I_SPECIES.length())
+				acc = acc.mul(31).add(IntVector.fromMemorySegment(I_SPECIES, memorySegment, (long) j * Integer.BYTES, ByteOrder.nativeOrder()));
+			for(int lane = 0; lane < I_SPECIES.length(); lane++)
+				h = 31 * h + acc.lane(lane);
 		}
-		return 0;
+		for(; j < size; j++)
+			h = 31 * h + memorySegment.get(ValueLayout.JAVA_INT, (long) j * Integer.BYTES);
+		return h;
 	}
-}
 
+	/**
+	 * Per-thread staging buffer for the serialized form.
+	 */
+	private static final class Codec {
+		static final ValueLayout.OfFloat LE_FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+		private static final ThreadLocal<Codec> CODEC = ThreadLocal.withInitial(Codec::new);
+		private byte[] buffer = new byte[4096];
+
+		static byte[] buffer(int bytes) {
+			Codec codec = CODEC.get();
+			if(codec.buffer.length < bytes)
+				codec.buffer = new byte[Math.max(bytes, codec.buffer.length << 1)];
+			return codec.buffer;
+		}
+	}
+}
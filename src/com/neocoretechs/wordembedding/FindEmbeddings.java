@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import com.neocoretechs.lsh.BucketKey;
 import com.neocoretechs.lsh.RelatrixLSH;
 
 import com.neocoretechs.relatrix.Relatrix;
@@ -69,16 +70,21 @@ public class FindEmbeddings {
 				System.exit(1);
 			}
 			res = (Result) it.next();
-			int tIndex = (int) res.get(0);
-			F32FloatTensor tTensor = (F32FloatTensor) res.get(1);
+			BucketKey tBucket = (BucketKey) res.get(0);
+			FloatTensor tTensor = (FloatTensor) res.get(1);
 			nearest = index.queryParallel(tTensor);
-			System.out.println("Target word index:"+tIndex);
+			System.out.println("Target word bucket:"+tBucket);
+			FloatTensor[] tensors = new FloatTensor[nearest.size()];
+			for(int i = 0; i < tensors.length; i++)
+				tensors[i] = (FloatTensor) nearest.get(i).get(1);
+			float[] cosDist = new float[tensors.length];
+			FloatTensor.cosineSimilarity(tTensor, tensors, cosDist);
 			List<Candidates> candidateList = new ArrayList<Candidates>();
 			for(int i = 0; i  < nearest.size(); i++) {
 				Candidates can = new Candidates();
 				can.word = (String) nearest.get(i).get(0);
-				can.tensor = (FloatTensor) nearest.get(i).get(1);
-				can.cosDist = FloatTensor.cosineSimilarity(tTensor, can.tensor);
+				can.tensor = tensors[i];
+				can.cosDist = cosDist[i];
 				int cnt = 0;
 				if(!candidateList.contains(can)) {
 					candidateList.add(can);
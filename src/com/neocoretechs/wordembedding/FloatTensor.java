@@ -2,7 +2,6 @@ package com.neocoretechs.wordembedding;
 
 import java.io.Externalizable;
 import java.util.Arrays;
-import java.util.concurrent.atomic.DoubleAdder;
 
 import jdk.incubator.vector.*;
 import java.lang.foreign.Arena;
@@ -18,8 +17,9 @@ public abstract class FloatTensor implements Externalizable, Comparable {
 	    static final int VECTOR_BIT_SIZE = Integer.getInteger("llama.VectorBitSize", VectorShape.preferredShape().vectorBitSize());
 	    static final boolean USE_VECTOR_API = VECTOR_BIT_SIZE != 0;
 
+	    // unaligned so half precision tensors may also live in byte[] backed heap segments
 	    static short readShort(MemorySegment memorySegment, long offset) {
-	        return memorySegment.get(ValueLayout.JAVA_SHORT, offset);
+	        return memorySegment.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset);
 	        //return UNSAFE.getShort(memorySegment.address() + offset);
 	    }
 	    
@@ -57,6 +57,11 @@ public abstract class FloatTensor implements Externalizable, Comparable {
 	        }
 	    }
 
+	    // Cached L2 norm, NaN until first computed. Implementations that mutate contents reset it.
+	    transient float norm = Float.NaN;
+	    // Set once the contents have been scaled to unit length.
+	    transient boolean normalized;
+
 	    public abstract int size();
 
 	    public abstract float getFloat(int index);
@@ -97,6 +102,40 @@ public abstract class FloatTensor implements Externalizable, Comparable {
 	        });
 	    }
 
+	    /**
+	     * Serial matrix-vector product over rows of this tensor, for small matrices where a parallel dispatch
+	     * would cost more than the arithmetic.
+	     * @param thisOffset element offset of the first row
+	     * @param that the vector, cols elements
+	     * @param out receives rows results
+	     * @param rows number of rows
+	     * @param cols elements per row
+	     */
+	    public void matvec(int thisOffset, FloatTensor that, float[] out, int rows, int cols) {
+	        for (int i = 0; i < rows; i++) {
+	            out[i] = dot(thisOffset + i * cols, that, 0, cols);
+	        }
+	    }
+
+	    /**
+	     * Sign of each row of a matrix-vector product packed into an int, bit i set when row i dot that is positive.
+	     * @param thisOffset element offset of the first row
+	     * @param that the vector, cols elements
+	     * @param rows number of rows, at most 32
+	     * @param cols elements per row
+	     * @return the packed sign bits
+	     */
+	    public int signBits(int thisOffset, FloatTensor that, int rows, int cols) {
+	        assert rows <= Integer.SIZE;
+	        int bits = 0;
+	        for (int i = 0; i < rows; i++) {
+	            if (dot(thisOffset + i * cols, that, 0, cols) > 0) {
+	                bits |= 1 << i;
+	            }
+	        }
+	        return bits;
+	    }
+
 	    @FunctionalInterface
 	    interface AggregateFunction {
 	        float apply(float acc, float value);
@@ -214,17 +253,85 @@ public abstract class FloatTensor implements Externalizable, Comparable {
 	        return this;
 	    }
 	    
+	    /**
+	     * Fused cosine kernel: dot product and both squared norms accumulated in a single pass.
+	     * Subclasses override this with a vectorized version for their storage format.
+	     */
+	    public float cosine(int thisOffset, FloatTensor that, int thatOffset, int size) {
+	        float dot = 0f, aa = 0f, bb = 0f;
+	        for (int j = 0; j < size; j++) {
+	            float a = getFloat(thisOffset + j);
+	            float b = that.getFloat(thatOffset + j);
+	            dot += a * b;
+	            aa += a * a;
+	            bb += b * b;
+	        }
+	        return cosine(dot, aa, bb);
+	    }
+
+	    static float cosine(float dot, float aa, float bb) {
+	        return (float) (dot / Math.sqrt((double) aa * bb));
+	    }
+
+	    /**
+	     * The L2 norm of this tensor, computed on first use and cached thereafter.
+	     * @return the norm, 1 when the tensor has been normalized
+	     */
+	    public float norm() {
+	        float n = norm;
+	        if (Float.isNaN(n)) {
+	            n = (float) Math.sqrt(dot(0, this, 0, size()));
+	            norm = n;
+	        }
+	        return n;
+	    }
+
+	    public boolean isNormalized() {
+	        return normalized;
+	    }
+
+	    /**
+	     * Scale this tensor to unit length, once, so cosine against other normalized tensors is a plain dot product.
+	     * Zero vectors are left as is.
+	     * @return this tensor
+	     */
+	    public FloatTensor normalizeInPlace() {
+	        if (normalized) {
+	            return this;
+	        }
+	        float n = norm();
+	        if (n > 0f && n != 1f) {
+	            divideInPlace(0, size(), n);
+	        }
+	        normalized = true;
+	        norm = n > 0f ? 1f : 0f;
+	        return this;
+	    }
+
 	    public static float cosineSimilarity(FloatTensor a, FloatTensor b) {
-	    	float dotProduct = a.dot(0, b, 0, a.size());
-	    	DoubleAdder aNormAdder = new DoubleAdder();
-	    	DoubleAdder bNormAdder = new DoubleAdder();
-	    	Parallel.parallelFor(0, a.size(), t -> {
-	    	    aNormAdder.add(a.getFloat(t) * a.getFloat(t));
-	    	    bNormAdder.add(b.getFloat(t) * b.getFloat(t));
-	    	});
-	    	float aNorm = (float) Math.sqrt(aNormAdder.sum());
-	    	float bNorm = (float) Math.sqrt(bNormAdder.sum());
-	    	return (dotProduct / (aNorm * bNorm));
+	    	if (a.isNormalized() && b.isNormalized()) {
+	    		return a.dot(0, b, 0, a.size());
+	    	}
+	    	return a.cosine(0, b, 0, a.size());
+	    }
+
+	    /**
+	     * Score one query against a batch of candidates on the calling thread.
+	     * @param query the query tensor
+	     * @param candidates the tensors to score
+	     * @param out receives the cosine similarity of each candidate, out[i] for candidates[i]
+	     */
+	    public static void cosineSimilarity(FloatTensor query, FloatTensor[] candidates, float[] out) {
+	    	if (out.length < candidates.length) {
+	    		throw new IllegalArgumentException(String.format("candidates.len=%d, out.len=%d", candidates.length, out.length));
+	    	}
+	    	int size = query.size();
+	    	for (int i = 0; i < candidates.length; i++) {
+	    		if (query.isNormalized() && candidates[i].isNormalized())
+	    			out[i] = query.dot(0, candidates[i], 0, size);
+	    		else
+	    			out[i] = query.cosine(0, candidates[i], 0, size);
+	    	}
 	    }
 	    
 	    public void verify() {
@@ -0,0 +1,215 @@
+package com.neocoretechs.wordembedding;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.*;
+
+/**
+ * Common storage of the 16 bit tensor types, {@link F16FloatTensor} and {@link BF16FloatTensor}: size elements
+ * of two bytes each in a {@link MemorySegment}, in native byte order. Subclasses supply the scalar conversion and
+ * {@link #widen(ShortVector)}, the vector dot kernels here load {@link FloatTensor#S_SPECIES_HALF} short vectors
+ * and widen them to float lanes with it. The JIT inlines widen into the kernels while one subclass is in use, a
+ * process that runs both through them pays a receiver check in the loop.<p>
+ * Standalone tensors are backed by a byte[] heap segment, rows of an {@link EmbeddingMatrix} by slices of its segment.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+abstract class HalfFloatTensor extends FloatTensor {
+	private static final long serialVersionUID = -1L;
+	static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED;
+	static final ValueLayout.OfShort LE_SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	static final int BYTES = Short.BYTES;
+
+	int size;
+	transient MemorySegment memorySegment;
+
+	public HalfFloatTensor() {}
+
+	HalfFloatTensor(int size, MemorySegment memorySegment) {
+		this.size = size;
+		this.memorySegment = memorySegment;
+	}
+
+	abstract float toFloat(short bits);
+
+	abstract short fromFloat(float value);
+
+	/**
+	 * Convert {@link FloatTensor#S_SPECIES_HALF} lanes of 16 bit values to {@link FloatTensor#F_SPECIES} floats.
+	 */
+	abstract FloatVector widen(ShortVector bits16);
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the backing segment, size * 2 bytes
+	 */
+	public MemorySegment getSegment() {
+		return memorySegment;
+	}
+
+	@Override
+	public float getFloat(int index) {
+		assert 0 <= index && index < size;
+		return toFloat(readShort(memorySegment, (long) index * BYTES));
+	}
+
+	@Override
+	public void setFloat(int index, float value) {
+		assert 0 <= index && index < size;
+		memorySegment.set(SHORT, (long) index * BYTES, fromFloat(value));
+		norm = Float.NaN;
+		normalized = false;
+	}
+
+	/**
+	 * Convert the elements of a tensor into 16 bit storage.
+	 * @param source the tensor to convert
+	 * @param target receives source.size() elements
+	 * @return target
+	 */
+	static <T extends HalfFloatTensor> T convert(FloatTensor source, T target) {
+		for(int i = 0; i < target.size; i++)
+			target.memorySegment.set(SHORT, (long) i * BYTES, target.fromFloat(source.getFloat(i)));
+		target.normalized = source.isNormalized();
+		return target;
+	}
+
+	@Override
+	public FloatVector getFloatVector(VectorSpecies<Float> species, int offset) {
+		if(species == F_SPECIES)
+			return widen(ShortVector.fromMemorySegment(S_SPECIES_HALF, memorySegment, (long) offset * BYTES, ByteOrder.nativeOrder()));
+		float[] values = new float[species.length()];
+		for(int i = 0; i < values.length; i++)
+			values[i] = getFloat(offset + i);
+		return FloatVector.fromArray(species, values, 0);
+	}
+
+	@Override
+	public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+		if(USE_VECTOR_API) {
+			if(that instanceof F32FloatTensor)
+				return vectorDot(this, thisOffset, (F32FloatTensor) that, thatOffset, size);
+			if(that.getClass() == getClass())
+				return vectorDot(this, thisOffset, (HalfFloatTensor) that, thatOffset, size);
+		}
+		return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+	}
+
+	static float vectorDot(HalfFloatTensor thiz, int thisOffset, F32FloatTensor that, int thatOffset, int size) {
+		FloatVector val = FloatVector.zero(F_SPECIES);
+		int upperBound = F_SPECIES.loopBound(size);
+		for(int j = 0; j < upperBound; j += F_SPECIES.length()) {
+			FloatVector a = thiz.widen(ShortVector.fromMemorySegment(S_SPECIES_HALF, thiz.memorySegment, (long)(thisOffset + j) * BYTES, ByteOrder.nativeOrder()));
+			FloatVector b = that.getFloatVector(F_SPECIES, thatOffset + j);
+			val = a.fma(b, val);
+		}
+		float result = val.reduceLanes(VectorOperators.ADD);
+		if(upperBound < size)
+			result += FloatTensor.scalarDot(thiz, thisOffset + upperBound, that, thatOffset + upperBound, size - upperBound);
+		return result;
+	}
+
+	/**
+	 * Both operands must be of the same subclass, the lanes of each are widened by thiz.
+	 */
+	static float vectorDot(HalfFloatTensor thiz, int thisOffset, HalfFloatTensor that, int thatOffset, int size) {
+		FloatVector val = FloatVector.zero(F_SPECIES);
+		int upperBound = F_SPECIES.loopBound(size);
+		for(int j = 0; j < upperBound; j += F_SPECIES.length()) {
+			FloatVector a = thiz.widen(ShortVector.fromMemorySegment(S_SPECIES_HALF, thiz.memorySegment, (long)(thisOffset + j) * BYTES, ByteOrder.nativeOrder()));
+			FloatVector b = thiz.widen(ShortVector.fromMemorySegment(S_SPECIES_HALF, that.memorySegment, (long)(thatOffset + j) * BYTES, ByteOrder.nativeOrder()));
+			val = a.fma(b, val);
+		}
+		float result = val.reduceLanes(VectorOperators.ADD);
+		if(upperBound < size)
+			result += FloatTensor.scalarDot(thiz, thisOffset + upperBound, that, thatOffset + upperBound, size - upperBound);
+		return result;
+	}
+
+	/**
+	 * Cosine from three vectorized dot products, the operand norms being taken over the same ranges.
+	 */
+	@Override
+	public float cosine(int thisOffset, FloatTensor that, int thatOffset, int size) {
+		if(!(that instanceof F32FloatTensor) && that.getClass() != getClass())
+			return super.cosine(thisOffset, that, thatOffset, size);
+		float d = dot(thisOffset, that, thatOffset, size);
+		float aa = dot(thisOffset, this, thisOffset, size);
+		float bb = that.dot(thatOffset, that, thatOffset, size);
+		return cosine(d, aa, bb);
+	}
+
+	/**
+	 * Serialized form: the int element count followed by the elements as little-endian 16 bit values, read
+	 * straight into the byte[] that backs the tensor.
+	 */
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		int bytes = size * BYTES;
+		out.writeInt(size);
+		if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN && memorySegment.heapBase().orElse(null) instanceof byte[] data &&
+			data.length == bytes && memorySegment.byteSize() == bytes) {
+			out.write(data);
+		} else {
+			byte[] data = new byte[bytes];
+			MemorySegment.copy(memorySegment, SHORT, 0, MemorySegment.ofArray(data), LE_SHORT, 0, size);
+			out.write(data);
+		}
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		size = in.readInt();
+		if(size < 0)
+			throw new IOException("negative tensor size:"+size);
+		byte[] data = new byte[size * BYTES];
+		in.readFully(data);
+		memorySegment = MemorySegment.ofArray(data);
+		if(ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+			MemorySegment.copy(memorySegment, LE_SHORT, 0, memorySegment, SHORT, 0, size);
+		norm = Float.NaN;
+		normalized = false;
+	}
+
+	/**
+	 * Lexicographic order of the raw bytes, as signed bytes, a shorter tensor ordering before any it is a prefix of.
+	 */
+	@Override
+	public int compareTo(Object o) {
+		MemorySegment other = ((HalfFloatTensor)o).memorySegment;
+		long i = memorySegment.mismatch(other);
+		if(i == -1)
+			return 0;
+		if(i == memorySegment.byteSize())
+			return -1;
+		if(i == other.byteSize())
+			return 1;
+		return Byte.compare(memorySegment.get(ValueLayout.JAVA_BYTE, i), other.get(ValueLayout.JAVA_BYTE, i));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o)
+			return true;
+		if(o == null || o.getClass() != getClass())
+			return false;
+		HalfFloatTensor other = (HalfFloatTensor)o;
+		return size == other.size && memorySegment.mismatch(other.memorySegment) == -1;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 1;
+		for(int i = 0; i < size; i++)
+			h = 31 * h + readShort(memorySegment, (long) i * BYTES);
+		return h;
+	}
+}
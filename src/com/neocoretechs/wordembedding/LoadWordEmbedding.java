@@ -5,6 +5,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,106 +43,49 @@ public class LoadWordEmbedding {
 	private static RelatrixClientTransaction rtc;
 	private static TransactionId xid;
 	private static int COMMITRATE = 1000;
-	public static ArrayList<F32FloatTensor> tensors = new ArrayList<F32FloatTensor>();
-	public static ArrayList<String> words = new ArrayList<String>();
+	public static EmbeddingMatrix matrix;
+	/**
+	 * Element type the loaded embeddings are held in, {@link EmbeddingFile#TYPE_F16} or {@link EmbeddingFile#TYPE_BF16}
+	 * halve the resident size and the size of each stored relation.
+	 */
+	public static int precision = EmbeddingFile.TYPE_F32;
 	public static String embedPath = "D:/etc/Relatrix/db/LSH/Embed";
 	
 	public LoadWordEmbedding() {}
 
+	/**
+	 * Parse the text embeddings in parallel straight into an off-heap matrix, see {@link EmbeddingParser}.
+	 * @param path the GloVe or word2vec text file
+	 * @throws IOException
+	 */
 	private static void loadVectors(String path) throws IOException {
-		String line;
 		long tims = System.currentTimeMillis();
-      	long tim2 = System.currentTimeMillis();
-		int cnt2 = 0;
-		int cnt = 0;
-		/*
-		 * MemorySegment and FileChannel, surprisingly slow
-	    Arena arena = Arena.ofAuto();
-	    try (FileChannel fileChannel = FileChannel.open(FileSystems.getDefault().getPath(path))) {
-        MemorySegment tensorData = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size(), arena);
-        int index = 0;
-        boolean newLine = true;
-        StringBuilder sb = new StringBuilder();
-		while (index <  fileChannel.size()) {
-            char currentChar = (char)tensorData.get(ValueLayout.JAVA_BYTE, index);
-            index++;
-            if(newLine) {
-            	sb = new StringBuilder();
-            	newLine = false;
-            }
-            if (currentChar != '\n') {
-            	sb.append(currentChar);
-            } else {
-            	newLine = true;
-    			String[] parts = sb.toString().split(" ");
-    			String word = parts[0];
-    			//double[] vector = new double[VECTOR_DIMENSION];
-    			FloatArray vector = new FloatArray(VECTOR_DIMENSION);
-    			ArrayList<Comparable[]> multiStore = new ArrayList<Comparable[]>();
-    			for (int i = 0; i < VECTOR_DIMENSION; i++) {
-    				//vector[i] = Double.parseDouble(parts[i + 1]);
-    				vector.get()[i] = Float.parseFloat(parts[i + 1]);	
-    				//Comparable[] c = new Comparable[]{word, vquant, vector};
-    				//multiStore.add(c);
-    			}
-    			F32FloatTensor f32 = new F32FloatTensor(VECTOR_DIMENSION, MemorySegment.ofArray(vector.get()));
-    			//System.out.println(f32);
-    			++cnt;
-    			tensors.add(f32);
-    			words.add(word);
-            }
-            if((System.currentTimeMillis()-tim2) > 5000) {
-            	tim2 = System.currentTimeMillis();
-            	System.out.println("Loaded "+index+" bytes "+cnt+" vectors in "+(System.currentTimeMillis()-tims)+" ms.");
-            }
-		}
-		}
-		*/
-		List<String[]> data = FileUtils.readCSVFile(path, " ", -1);
-		for(String[] sb: data) {
-			//String[] parts = sb.toString().split(" ");
-			String word = sb[0];
-			//double[] vector = new double[VECTOR_DIMENSION];
-			FloatArray vector = new FloatArray(VECTOR_DIMENSION);
-			ArrayList<Comparable[]> multiStore = new ArrayList<Comparable[]>();
-			for (int i = 0; i < VECTOR_DIMENSION; i++) {
-				//vector[i] = Double.parseDouble(parts[i + 1]);
-				vector.get()[i] = Float.parseFloat(sb[i + 1]);	
-				//Comparable[] c = new Comparable[]{word, vquant, vector};
-				//multiStore.add(c);
-			}
-			F32FloatTensor f32 = new F32FloatTensor(VECTOR_DIMENSION, MemorySegment.ofArray(vector.get()));
-			//System.out.println(f32);
-			++cnt;
-			tensors.add(f32);
-			words.add(word);
-			if((System.currentTimeMillis()-tim2) > 5000) {
-				tim2 = System.currentTimeMillis();
-				System.out.println("Loaded "+cnt+" vectors in "+(System.currentTimeMillis()-tims)+" ms.");
-			}
-		}
-		/*
-			// store inverted index of word, quantized vector element, vector
-			rtc.multiStore(xid, multiStore);
-			//rtc.store(xid, word, vector);
-			if((System.currentTimeMillis()-tims) > 5000) {
-				System.out.println("Processed "+cnt2);
-				tims = System.currentTimeMillis();
-			}
-			if(cnt >= COMMITRATE) {
-				rtc.commit(xid);
-				cnt = 0;
-			}
-			++cnt2;
-			++cnt;
-		}
-		rtc.commit(xid);
-		*/
+		matrix = EmbeddingParser.parse(path).convert(precision);
+		long elapsed = System.currentTimeMillis()-tims;
+		System.out.printf("Parsed %d vectors in %d ms, %.1f MB/s%n", matrix.rows(), elapsed, EmbeddingParser.throughput(Files.size(FileSystems.getDefault().getPath(path)), elapsed));
+		if(matrix.dimension() != VECTOR_DIMENSION)
+			System.out.println("Loaded vectors of dimension "+matrix.dimension()+", expected "+VECTOR_DIMENSION);
 	}
 	
-	public static ArrayList<F32FloatTensor> loadTensors(String path) throws IOException {
+	/**
+	 * Load the embeddings into a single contiguous off-heap matrix, one row per word.
+	 * A file previously converted by {@link EmbeddingFile} is memory mapped instead of parsed. Either way the
+	 * result is in {@link #precision}, converted if need be, and the time taken is printed, with the parse rate in
+	 * MB/s for a text file.
+	 * @param path the GloVe text file or binary embedding file
+	 * @return the matrix, rows addressed by word id
+	 * @throws IOException
+	 */
+	public static EmbeddingMatrix loadTensors(String path) throws IOException {
+		Path p = FileSystems.getDefault().getPath(path);
+		if(EmbeddingFile.isEmbeddingFile(p)) {
+			long tims = System.currentTimeMillis();
+			matrix = EmbeddingFile.map(p).convert(precision);
+			System.out.println("Mapped "+matrix.rows()+" vectors in "+(System.currentTimeMillis()-tims)+" ms.");
+			return matrix;
+		}
         loadVectors(path);
-		return tensors;
+		return matrix;
 	}
 
 	/**
@@ -157,21 +101,13 @@ public class LoadWordEmbedding {
 		//rtc = new RelatrixClientTransaction(args[1],args[2],Integer.parseInt(args[3]));
 		//xid = rtc.getTransactionId();
 		Relatrix.setTablespace(embedPath);
-		ArrayList<F32FloatTensor> tensors = loadTensors(args[0]);
+		EmbeddingMatrix tensors = loadTensors(args[0]);
 		RelatrixLSH rlsh = new RelatrixLSH(RelatrixLSH.numberOfHashes, RelatrixLSH.numberOfHashTables, RelatrixLSH.VECTOR_DIMENSION);
 		try {
 			Relatrix.store(rlsh.getKey(), "has index", rlsh);
 		} catch (IllegalAccessException | ClassNotFoundException | IOException | DuplicateKeyException e) {
 				e.printStackTrace();
 		}
-		long tims = System.currentTimeMillis();
-		long tim2 = System.currentTimeMillis();
-		for(int i = 0; i < tensors.size(); i++) {
-			rlsh.add(words.get(i), tensors.get(i));
-			if((System.currentTimeMillis()-tim2) > 5000) {
-				tim2 = System.currentTimeMillis();
-				System.out.println("Loaded "+i+" vectors in "+(System.currentTimeMillis()-tims)+" ms.");
-			}
-		}
+		rlsh.addAll(tensors, COMMITRATE);
 	}
 }
@@ -0,0 +1,319 @@
+package com.neocoretechs.wordembedding;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.*;
+
+/**
+ * A vector stored as signed 8 bit codes with one scale and zero point for the whole vector, a quarter of the
+ * space of float32.<p>
+ * Element i decodes to scale * (code[i] - zeroPoint). {@link #quantize(FloatTensor)} maps the range of the source,
+ * widened to include zero, onto -128..127, so zero is represented exactly and the error per element is at most
+ * scale / 2.<p>
+ * Dot products never decode element by element. Against a {@link F32FloatTensor} the codes are widened to float
+ * lanes and the zero point is folded in once from the sum of the other operand:
+ * scale * (sum(code * x) - zeroPoint * sum(x)). Against another Q8 tensor the codes are multiplied as ints and
+ * both zero points are folded in from the code sums, so a Q8 x Q8 product is integer arithmetic throughout.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2025
+ */
+public final class Q8FloatTensor extends FloatTensor {
+	private static final long serialVersionUID = -1L;
+	// byte lanes loaded per step, at least one full float vector's worth and never narrower than 64 bits
+	static final VectorSpecies<Byte> B_SPECIES;
+	// float or int vectors produced from one byte vector
+	static final int PARTS;
+
+	static {
+		if(USE_VECTOR_API) {
+			B_SPECIES = VectorShape.forBitSize(Math.max(64, F_SPECIES.vectorBitSize() / 4)).withLanes(byte.class);
+			PARTS = B_SPECIES.length() / F_SPECIES.length();
+		} else {
+			B_SPECIES = null;
+			PARTS = 0;
+		}
+	}
+
+	int size;
+	float scale;
+	int zeroPoint;
+	transient MemorySegment memorySegment;
+
+	public Q8FloatTensor() {}
+
+	/**
+	 * @param size number of elements
+	 * @param scale the step between adjacent codes
+	 * @param zeroPoint the code representing 0
+	 * @param memorySegment size bytes of codes
+	 */
+	public Q8FloatTensor(int size, float scale, int zeroPoint, MemorySegment memorySegment) {
+		this.size = size;
+		this.scale = scale;
+		this.zeroPoint = zeroPoint;
+		this.memorySegment = memorySegment;
+	}
+
+	/**
+	 * Quantize a tensor into a new heap backed Q8 tensor.
+	 * @param source the tensor to quantize
+	 * @return the quantized copy
+	 */
+	public static Q8FloatTensor quantize(FloatTensor source) {
+		return quantize(source, MemorySegment.ofArray(new byte[source.size()]));
+	}
+
+	/**
+	 * Quantize a tensor into caller supplied storage, such as a slice of one segment holding many vectors.
+	 * @param source the tensor to quantize
+	 * @param codes at least source.size() bytes, receives the codes
+	 * @return the quantized tensor, backed by codes
+	 */
+	public static Q8FloatTensor quantize(FloatTensor source, MemorySegment codes) {
+		int n = source.size();
+		float min = 0f, max = 0f;
+		for(int i = 0; i < n; i++) {
+			float v = source.getFloat(i);
+			if(v < min)
+				min = v;
+			if(v > max)
+				max = v;
+		}
+		float scale = max > min ? (max - min) / 255f : 1f;
+		int zeroPoint = clamp(Math.round(-128f - min / scale));
+		for(int i = 0; i < n; i++)
+			codes.set(ValueLayout.JAVA_BYTE, i, (byte) clamp(Math.round(source.getFloat(i) / scale) + zeroPoint));
+		return new Q8FloatTensor(n, scale, zeroPoint, codes);
+	}
+
+	private static int clamp(int code) {
+		return Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, code));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public float getScale() {
+		return scale;
+	}
+
+	public int getZeroPoint() {
+		return zeroPoint;
+	}
+
+	/**
+	 * @return the backing segment of size code bytes
+	 */
+	public MemorySegment getSegment() {
+		return memorySegment;
+	}
+
+	int code(int index) {
+		return readByte(memorySegment, index);
+	}
+
+	@Override
+	public float getFloat(int index) {
+		assert 0 <= index && index < size;
+		return scale * (code(index) - zeroPoint);
+	}
+
+	/**
+	 * Store the nearest code for a value under this tensor's existing scale and zero point. Values outside the
+	 * range chosen at quantization are clamped.
+	 */
+	@Override
+	public void setFloat(int index, float value) {
+		assert 0 <= index && index < size;
+		memorySegment.set(ValueLayout.JAVA_BYTE, index, (byte) clamp(Math.round(value / scale) + zeroPoint));
+		norm = Float.NaN;
+		normalized = false;
+	}
+
+	@Override
+	public FloatVector getFloatVector(VectorSpecies<Float> species, int offset) {
+		float[] values = new float[species.length()];
+		for(int i = 0; i < values.length; i++)
+			values[i] = getFloat(offset + i);
+		return FloatVector.fromArray(species, values, 0);
+	}
+
+	@Override
+	public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+		if(that instanceof F32FloatTensor) {
+			if(USE_VECTOR_API)
+				return vectorDot(this, thisOffset, (F32FloatTensor) that, thatOffset, size);
+			return scalarDot(this, thisOffset, (F32FloatTensor) that, thatOffset, size);
+		}
+		if(that instanceof Q8FloatTensor) {
+			if(USE_VECTOR_API)
+				return vectorDot(this, thisOffset, (Q8FloatTensor) that, thatOffset, size);
+			return scalarDot(this, thisOffset, (Q8FloatTensor) that, thatOffset, size);
+		}
+		return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+	}
+
+	/**
+	 * Cosine from three vectorized dot products, the operand norms being taken over the same ranges.
+	 */
+	@Override
+	public float cosine(int thisOffset, FloatTensor that, int thatOffset, int size) {
+		if(!(that instanceof F32FloatTensor) && !(that instanceof Q8FloatTensor))
+			return super.cosine(thisOffset, that, thatOffset, size);
+		float d = dot(thisOffset, that, thatOffset, size);
+		float aa = dot(thisOffset, this, thisOffset, size);
+		float bb = that.dot(thatOffset, that, thatOffset, size);
+		return cosine(d, aa, bb);
+	}
+
+	static float scalarDot(Q8FloatTensor thiz, int thisOffset, F32FloatTensor that, int thatOffset, int size) {
+		float dot = 0f, sum = 0f;
+		for(int j = 0; j < size; j++) {
+			float x = readFloat(that.memorySegment, (long)(thatOffset + j) * Float.BYTES);
+			dot += thiz.code(thisOffset + j) * x;
+			sum += x;
+		}
+		return thiz.scale * (dot - thiz.zeroPoint * sum);
+	}
+
+	/**
+	 * int8 x float32: each byte vector is widened to {@link #PARTS} float vectors which are multiplied into one
+	 * accumulator while the float operand is summed into another for the zero point correction.
+	 */
+	static float vectorDot(Q8FloatTensor thiz, int thisOffset, F32FloatTensor that, int thatOffset, int size) {
+		FloatVector dot = FloatVector.zero(F_SPECIES);
+		FloatVector sum = FloatVector.zero(F_SPECIES);
+		int upperBound = B_SPECIES.loopBound(size);
+		for(int j = 0; j < upperBound; j += B_SPECIES.length()) {
+			ByteVector codes = ByteVector.fromMemorySegment(B_SPECIES, thiz.memorySegment, thisOffset + j, ByteOrder.nativeOrder());
+			for(int p = 0; p < PARTS; p++) {
+				FloatVector a = (FloatVector) codes.convertShape(VectorOperators.B2F, F_SPECIES, p);
+				FloatVector x = that.getFloatVector(F_SPECIES, thatOffset + j + p * F_SPECIES.length());
+				dot = a.fma(x, dot);
+				sum = sum.add(x);
+			}
+		}
+		float result = thiz.scale * (dot.reduceLanes(VectorOperators.ADD) - thiz.zeroPoint * sum.reduceLanes(VectorOperators.ADD));
+		if(upperBound < size)
+			result += scalarDot(thiz, thisOffset + upperBound, that, thatOffset + upperBound, size - upperBound);
+		return result;
+	}
+
+	static float scalarDot(Q8FloatTensor thiz, int thisOffset, Q8FloatTensor that, int thatOffset, int size) {
+		int dot = 0, sumA = 0, sumB = 0;
+		for(int j = 0; j < size; j++) {
+			int a = thiz.code(thisOffset + j);
+			int b = that.code(thatOffset + j);
+			dot += a * b;
+			sumA += a;
+			sumB += b;
+		}
+		return combine(thiz, that, dot, sumA, sumB, size);
+	}
+
+	/**
+	 * int8 x int8: both byte vectors are widened to int lanes, multiplied and summed exactly, the code sums being
+	 * accumulated alongside for the zero point correction.
+	 */
+	static float vectorDot(Q8FloatTensor thiz, int thisOffset, Q8FloatTensor that, int thatOffset, int size) {
+		IntVector dot = IntVector.zero(I_SPECIES);
+		IntVector sumA = IntVector.zero(I_SPECIES);
+		IntVector sumB = IntVector.zero(I_SPECIES);
+		int upperBound = B_SPECIES.loopBound(size);
+		for(int j = 0; j < upperBound; j += B_SPECIES.length()) {
+			ByteVector ca = ByteVector.fromMemorySegment(B_SPECIES, thiz.memorySegment, thisOffset + j, ByteOrder.nativeOrder());
+			ByteVector cb = ByteVector.fromMemorySegment(B_SPECIES, that.memorySegment, thatOffset + j, ByteOrder.nativeOrder());
+			for(int p = 0; p < PARTS; p++) {
+				IntVector a = (IntVector) ca.convertShape(VectorOperators.B2I, I_SPECIES, p);
+				IntVector b = (IntVector) cb.convertShape(VectorOperators.B2I, I_SPECIES, p);
+				dot = a.mul(b).add(dot);
+				sumA = sumA.add(a);
+				sumB = sumB.add(b);
+			}
+		}
+		int d = dot.reduceLanes(VectorOperators.ADD);
+		int sa = sumA.reduceLanes(VectorOperators.ADD);
+		int sb = sumB.reduceLanes(VectorOperators.ADD);
+		for(int j = upperBound; j < size; j++) {
+			int a = thiz.code(thisOffset + j);
+			int b = that.code(thatOffset + j);
+			d += a * b;
+			sa += a;
+			sb += b;
+		}
+		return combine(thiz, that, d, sa, sb, size);
+	}
+
+	/**
+	 * sum((a - za)(b - zb)) = sum(ab) - zb sum(a) - za sum(b) + n za zb, scaled by both scales.
+	 */
+	private static float combine(Q8FloatTensor thiz, Q8FloatTensor that, int dot, int sumA, int sumB, int size) {
+		long centered = (long) dot - (long) that.zeroPoint * sumA - (long) thiz.zeroPoint * sumB + (long) size * thiz.zeroPoint * that.zeroPoint;
+		return thiz.scale * that.scale * centered;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeInt(size);
+		out.writeFloat(scale);
+		out.writeByte(zeroPoint);
+		if(memorySegment.heapBase().orElse(null) instanceof byte[] codes && codes.length == size && memorySegment.byteSize() == size)
+			out.write(codes);
+		else
+			out.write(memorySegment.toArray(ValueLayout.JAVA_BYTE), 0, size);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		size = in.readInt();
+		if(size < 0)
+			throw new IOException("negative tensor size:"+size);
+		scale = in.readFloat();
+		zeroPoint = in.readByte();
+		byte[] codes = new byte[size];
+		in.readFully(codes);
+		memorySegment = MemorySegment.ofArray(codes);
+		norm = Float.NaN;
+		normalized = false;
+	}
+
+	@Override
+	public int compareTo(Object o) {
+		Q8FloatTensor other = (Q8FloatTensor) o;
+		long i = memorySegment.asSlice(0, size).mismatch(other.memorySegment.asSlice(0, other.size));
+		if(i != -1) {
+			if(i == size)
+				return -1;
+			if(i == other.size)
+				return 1;
+			return Byte.compare(memorySegment.get(ValueLayout.JAVA_BYTE, i), other.memorySegment.get(ValueLayout.JAVA_BYTE, i));
+		}
+		int c = Float.compare(scale, other.scale);
+		if(c != 0)
+			return c;
+		return Integer.compare(zeroPoint, other.zeroPoint);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o)
+			return true;
+		if(!(o instanceof Q8FloatTensor))
+			return false;
+		return compareTo(o) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 31 * Float.floatToIntBits(scale) + zeroPoint;
+		for(int i = 0; i < size; i++)
+			h = 31 * h + code(i);
+		return h;
+	}
+}